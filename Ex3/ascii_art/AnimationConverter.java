@@ -0,0 +1,91 @@
+package ascii_art;
+
+import ascii_output.AnsiDeltaAsciiOutput;
+import exceptions.InvalidResolutionException;
+import image.FrameSequence;
+import image.Image;
+import image_char_matching.CharsData;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A non-interactive entry point that plays an animated GIF, or a directory of numbered frames,
+ * as ASCII art on the console. Only the squares that changed between frames are converted
+ * again, and only the chars that changed are redrawn.
+ * When done, the number of frames, the conversion rate and the share of squares that had
+ * to be converted are reported.
+ *
+ * Usage: AnimationConverter &lt;gif or directory&gt; &lt;charset&gt; &lt;resolution&gt; [fps]
+ * The charset has the same format as the shell's add command, for example "all" or "a-z".
+ * Frames are played at the given rate, or as fast as possible if it is 0 or omitted.
+ * The resolution must fit the frames as it must fit an image in the shell. Playing stops,
+ * with an error, at the first frame it does not fit.
+ */
+public class AnimationConverter {
+    private static final String USAGE = "Usage: AnimationConverter <gif or directory> <charset> " +
+            "<resolution> [fps]";
+    private static final double NANOS_PER_MILLI = 1e6;
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final double PERCENT = 100;
+
+    /**
+     * Parses the command-line arguments and plays the frames.
+     *
+     * @param args The command-line arguments, see the class documentation.
+     */
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.err.println(USAGE);
+            return;
+        }
+        char[] charset = new UserActions().add(args[1]);
+        int resolution;
+        int fps;
+        try {
+            resolution = Integer.parseInt(args[2]);
+            fps = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+        } catch (NumberFormatException e) {
+            System.err.println(USAGE);
+            return;
+        }
+        if (charset == null || resolution < 1 || fps < 0) {
+            System.err.println(USAGE);
+            return;
+        }
+        FrameSequenceAsciiArt algorithm = new FrameSequenceAsciiArt(resolution,
+                CharsData.getInstance().getMatcher(charset));
+        AnsiDeltaAsciiOutput output = new AnsiDeltaAsciiOutput();
+        long frameNanos = fps == 0 ? 0 : (long) (NANOS_PER_SECOND / fps);
+        int frames = 0;
+        long busyNanos = 0;
+        try (FrameSequence sequence = FrameSequence.open(args[0])) {
+            long nextFrame = System.nanoTime();
+            for (Image frame = sequence.next(); frame != null; frame = sequence.next()) {
+                long start = System.nanoTime();
+                output.out(algorithm.next(frame));
+                busyNanos += System.nanoTime() - start;
+                frames++;
+                nextFrame += frameNanos;
+                long wait = nextFrame - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot read frames: " + e.getMessage());
+            return;
+        } catch (InvalidResolutionException e) {
+            System.err.println(e.getMessage());
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (frames > 0) {
+            System.err.printf("%d frames, %.2f ms per frame converted and drawn (%.1f fps), " +
+                            "%.1f%% of squares converted%n", frames, busyNanos / NANOS_PER_MILLI / frames,
+                    frames * NANOS_PER_SECOND / busyNanos, algorithm.getComputedRatio() * PERCENT);
+        }
+    }
+}
@@ -1,24 +1,40 @@
 
 package ascii_art;
 
+import image.BrightnessPyramid;
+import image.BrightnessTable;
 import image.Image;
-import image.ImageUtils;
 import image.ResolutionImageData;
-import image.Tuple;
+import image_char_matching.CharsData;
+import image_char_matching.Ditherer;
+import image_char_matching.GlyphMatcher;
 import image_char_matching.SubImgCharMatcher;
 
-import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * The AsciiArtAlgorithm class implements an algorithm for generating ASCII art representations of images.
  * It takes an input image, divides it into smaller squares, and replaces each square
  * with a character based on its brightness level.
+ * Optionally, each square is matched by its shape instead, against the glyph bitmaps of the
+ * characters, which keeps edges that the average brightness loses.
+ * When matching by brightness, the brightness can be dithered before it is matched.
+ * Instead of square cells over the padded image, the image can also be divided into a grid of
+ * any number of columns and rows laid over the image itself, so no work is spent on padding
+ * and the rows can be chosen to correct for the shape of the characters.
  */
 public class AsciiArtAlgorithm {
     private final ResolutionImageData imagesData; // Object to store processed image data
     private final Image image; // The input image
-    private final int resolution; // Resolution for dividing the image into squares
-    private final char[] charsForImage; // Characters to be used for representing different brightness levels
+    private final int resolution; // Resolution for dividing the image into squares, or the columns of a grid
+    private final int rows; // Rows of the grid of cells, or 0 to divide the padded image into squares
+    private final SubImgCharMatcher charMatcher; // Matcher of the characters used for the image
+    private final GlyphMatcher glyphMatcher; // Matcher by shape, or null to match by brightness
+    private final Ditherer ditherer; // Dithers the brightness before matching, or null for none
+    private final ForkJoinPool pool; // Pool for computing brightness in parallel, or null for serial
+    private final boolean withColor; // Whether the mean color of each square is computed as well
+    private final boolean cached; // Whether the brightness is kept in the shared cache of images
+    private BrightnessTable brightnessTable; // Table used by run, kept for getColors, null until used
 
     /**
      * Constructs an AsciiArtAlgorithm object with the specified parameters.
@@ -28,24 +44,189 @@ public class AsciiArtAlgorithm {
      * @param charsForImage An array of characters to be used for representing different brightness levels.
      */
     public AsciiArtAlgorithm(Image image, int resolution, char[] charsForImage) {
-        this.image = image;
-        this.resolution = resolution;
-        this.charsForImage = charsForImage;
+        this(new Builder(image, resolution).charMatcher(CharsData.getInstance().getMatcher(charsForImage)));
+    }
+
+    /**
+     * Constructs an AsciiArtAlgorithm object from the options of a builder.
+     *
+     * @param builder The options of the algorithm.
+     */
+    private AsciiArtAlgorithm(Builder builder) {
+        this.image = builder.image;
+        this.resolution = builder.resolution;
+        this.rows = builder.rows;
+        this.charMatcher = builder.charMatcher;
+        this.glyphMatcher = builder.glyphMatcher;
+        this.ditherer = builder.ditherer;
+        this.pool = builder.pool;
+        this.withColor = builder.withColor;
+        this.cached = builder.cached;
         imagesData = ResolutionImageData.getInstance(); // Initialize object to store processed image data
     }
 
+    /**
+     * Builds an AsciiArtAlgorithm with options beyond the charset, for example:
+     * new AsciiArtAlgorithm.Builder(image, 128).charMatcher(matcher).pool(pool).withColor(true).build().
+     * Exactly one of the two matchers must be given.
+     */
+    public static class Builder {
+        private final Image image; // The input image
+        private final int resolution; // Resolution of the squares, or the columns of a grid
+        private int rows; // Rows of the grid of cells, or 0 to divide the padded image into squares
+        private SubImgCharMatcher charMatcher; // Matcher by brightness, or null
+        private GlyphMatcher glyphMatcher; // Matcher by shape, or null
+        private Ditherer ditherer; // Dithers the brightness before matching, or null for none
+        private ForkJoinPool pool; // Pool to compute on, or null to compute serially
+        private boolean withColor; // Whether the colors will be asked for with getColors
+        private boolean cached = true; // Whether the brightness is kept in the shared cache
+
+        /**
+         * Starts building an algorithm that divides the image into squares.
+         *
+         * @param image      The input image to be converted to ASCII art.
+         * @param resolution The resolution for dividing the image into squares, or the number of
+         *                   columns of the grid if grid is called.
+         */
+        public Builder(Image image, int resolution) {
+            this.image = image;
+            this.resolution = resolution;
+        }
+
+        /**
+         * Divides the image into a grid of cells of any shape rather than into squares. The grid
+         * is laid over the image itself: there is no padding, and each cell is summed over its
+         * exact pixels. The resolution is the number of characters in each row, at most the width
+         * of the image.
+         *
+         * @param rows The number of rows of characters, at most the height of the image.
+         * @return This builder.
+         * @throws IllegalArgumentException If the number of rows is not positive.
+         */
+        public Builder grid(int rows) {
+            if (rows < 1) {
+                throw new IllegalArgumentException("Rows must be positive: " + rows);
+            }
+            this.rows = rows;
+            return this;
+        }
+
+        /**
+         * Matches the brightness of each square. The matcher is only read, so one matcher can be
+         * shared by algorithms running concurrently.
+         *
+         * @param charMatcher The matcher of the characters to be used for the image.
+         * @return This builder.
+         */
+        public Builder charMatcher(SubImgCharMatcher charMatcher) {
+            this.charMatcher = charMatcher;
+            return this;
+        }
+
+        /**
+         * Matches each square to the character whose glyph is closest to its shape, rather than
+         * to its brightness alone. The glyph grid is stretched over each cell of a grid.
+         *
+         * @param glyphMatcher The matcher of the glyphs of the characters to be used for the image.
+         * @return This builder.
+         */
+        public Builder glyphMatcher(GlyphMatcher glyphMatcher) {
+            this.glyphMatcher = glyphMatcher;
+            return this;
+        }
+
+        /**
+         * Dithers the brightness of the squares before matching them. The cached brightness is
+         * not changed: a copy of it is dithered. Only used when matching by brightness.
+         *
+         * @param ditherer The ditherer of the brightness, or null to match it as is.
+         * @return This builder.
+         */
+        public Builder ditherer(Ditherer ditherer) {
+            this.ditherer = ditherer;
+            return this;
+        }
+
+        /**
+         * Computes on the given pool. The result is identical to the serial algorithm.
+         *
+         * @param pool The pool to compute on, or null to compute serially.
+         * @return This builder.
+         */
+        public Builder pool(ForkJoinPool pool) {
+            this.pool = pool;
+            return this;
+        }
+
+        /**
+         * Computes the mean color of each square as well, in the same pass over the pixels as
+         * the brightness.
+         *
+         * @param withColor Whether the colors of the squares will be asked for with getColors.
+         * @return This builder.
+         */
+        public Builder withColor(boolean withColor) {
+            this.withColor = withColor;
+            return this;
+        }
+
+        /**
+         * Sets whether the brightness of the image is looked up in, and kept in, the shared cache
+         * of processed images. The cache pays off when the same image is converted again, as in
+         * the shell. When every image is converted once, as in a batch of distinct files, the
+         * cache only costs a digest of every pixel and room in its budget, so the brightness
+         * table is built for this algorithm alone instead.
+         *
+         * @param cached Whether to use the shared cache, true by default.
+         * @return This builder.
+         */
+        public Builder cached(boolean cached) {
+            this.cached = cached;
+            return this;
+        }
+
+        /**
+         * Creates the algorithm.
+         *
+         * @return The algorithm.
+         * @throws IllegalArgumentException If not exactly one matcher was given, or a ditherer
+         *                                  was given with the glyph matcher.
+         */
+        public AsciiArtAlgorithm build() {
+            if ((charMatcher == null) == (glyphMatcher == null)) {
+                throw new IllegalArgumentException("Exactly one of the char and glyph matchers " +
+                        "must be given");
+            }
+            if (ditherer != null && glyphMatcher != null) {
+                throw new IllegalArgumentException("Dithering only applies to matching by brightness");
+            }
+            return new AsciiArtAlgorithm(this);
+        }
+    }
+
     /**
      * Runs the ASCII art algorithm on the input image.
      *
      * @return A 2D character array representing the ASCII art version of the input image.
      */
     public char[][] run() {
+        if (glyphMatcher != null) {
+            return runByShape();
+        }
         // Get the brightness values of the image after processing
         double[][] brightnessValueOfImage = getImageAfterProcess();
+        if (ditherer != null) {
+            // The processed image is cached and shared, so dither a copy of it
+            double[][] dithered = new double[brightnessValueOfImage.length][];
+            for (int i = 0; i < dithered.length; i++) {
+                dithered[i] = brightnessValueOfImage[i].clone();
+            }
+            ditherer.dither(dithered, charMatcher, pool);
+            brightnessValueOfImage = dithered;
+        }
         int numSquaresRows = brightnessValueOfImage.length;
         int numSquaresCols = brightnessValueOfImage[0].length;
         char[][] afterProcessImage = new char[numSquaresRows][numSquaresCols];
-        SubImgCharMatcher charMatcher = new SubImgCharMatcher(charsForImage);
 
         // Iterate over each square in the resolution image to match brightness values to characters
         for (int i = 0; i < numSquaresRows; i++) {
@@ -58,33 +239,97 @@ public class AsciiArtAlgorithm {
         return afterProcessImage;
     }
 
+    /**
+     * Runs the algorithm matching every square by its shape. The squares are sampled from the
+     * summed-area table on the grid of the glyphs, so no pixel is read again.
+     *
+     * @return A 2D character array representing the ASCII art version of the input image.
+     */
+    private char[][] runByShape() {
+        BrightnessTable brightnessTable = getBrightnessTable();
+        if (rows > 0) {
+            char[][] afterProcessImage = new char[rows][resolution];
+            brightnessTable.forEachCellSamples(resolution, rows, GlyphMatcher.GRID, pool,
+                    (row, col, samples) -> afterProcessImage[row][col] = glyphMatcher.getCharByCells(samples));
+            return afterProcessImage;
+        }
+        char[][] afterProcessImage = new char[resolution][resolution];
+        brightnessTable.forEachSquareSamples(resolution, GlyphMatcher.GRID, pool,
+                (row, col, samples) -> afterProcessImage[row][col] = glyphMatcher.getCharByCells(samples));
+        return afterProcessImage;
+    }
+
+    /**
+     * Returns the mean color of each square of the input image, in the same layout as the
+     * characters returned by run.
+     * The table run used is reused, so in color mode the pixels are scanned once even when the
+     * table is too large for the cache to keep.
+     *
+     * @return The packed RGB (0xRRGGBB) color of each square, row-major.
+     */
+    public int[] getColors() {
+        BrightnessTable brightnessTable;
+        if (withColor) {
+            brightnessTable = getBrightnessTable();
+        } else {
+            brightnessTable = cached ? imagesData.getBrightnessTable(image, pool, true) :
+                    new BrightnessTable(image, pool, true);
+        }
+        if (rows > 0) {
+            return brightnessTable.getColorsAtGrid(resolution, rows, pool);
+        }
+        return brightnessTable.getColorsAtResolution(resolution, pool);
+    }
+
+    /**
+     * Returns the brightness table of the image, getting it from the cache, or building it when
+     * not cached, on first use and keeping it for the rest of the life of this algorithm.
+     *
+     * @return The brightness table of the image, with color in color mode.
+     */
+    private BrightnessTable getBrightnessTable() {
+        if (brightnessTable == null) {
+            brightnessTable = cached ? imagesData.getBrightnessTable(image, pool, withColor) :
+                    new BrightnessTable(image, pool, withColor);
+        }
+        return brightnessTable;
+    }
+
     /**
      * Run the process on the image, first checks if the image with that resolution is in data,
-     * if not make all the steps : padding, breaking to small images and calculate brightness.
+     * if not looks up the brightness of every square in the summed-area table of the image,
+     * treating the padding as white.
+     * The table is built once per image, so changing the resolution does not rescan the pixels.
+     * For a power of 2 resolution a brightness pyramid is built as well, and every coarser
+     * power of 2 resolution is stored too, so stepping the resolution down is a cache hit.
+     * A grid of cells is looked up in the table over the exact pixels of each cell instead.
+     * When not cached, the brightness is looked up in a table of this algorithm alone.
      * @return 2D array of doubles which represent the image after the process.
      */
 
     private double[][] getImageAfterProcess() {
-        double[][] brightnessValueOfImage = imagesData.getProcessImage(image, resolution);
-        if (brightnessValueOfImage != null) {
-            return brightnessValueOfImage; // Return stored data if available
-        }
-
-        // Initialize a 2D double array to store the brightness values of each square
-        brightnessValueOfImage = new double[resolution][resolution];
-        // Add padding to the input image to ensure uniform division into squares
-        Image paddingImage = ImageUtils.imagePadding(image);
-        // Divide the padded image into squares according to the specified resolution
-        Image[][] resolutionImage = ImageUtils.imageAfterResolution(resolution, paddingImage);
-
-        // Iterate over each square in the resolution image to calculate brightness values
-        for (int i = 0; i < resolution; i++) {
-            for (int j = 0; j < resolution; j++) {
-                brightnessValueOfImage[i][j] = ImageUtils.getImageBrightness(resolutionImage[i][j]);
-            }
+        if (!cached) {
+            return rows > 0 ? getBrightnessTable().getBrightnessAtGrid(resolution, rows, pool) :
+                    getBrightnessTable().getBrightnessAtResolution(resolution, pool);
         }
-        // Store the processed data for future use
-        imagesData.addNewData(image, resolution, brightnessValueOfImage);
-        return brightnessValueOfImage;
+        if (rows > 0) {
+            return imagesData.getOrComputeGridImage(image, resolution, rows, () ->
+                    getBrightnessTable().getBrightnessAtGrid(resolution, rows, pool));
+        }
+        // Return stored data if available, otherwise compute it once and store it for future use
+        return imagesData.getOrComputeProcessImage(image, resolution, () -> {
+            // Get the brightness table of the image, built on first use
+            BrightnessTable brightnessTable = getBrightnessTable();
+            if (!BrightnessPyramid.isSupported(brightnessTable, resolution)) {
+                // Look up the brightness of each square of the requested resolution
+                return brightnessTable.getBrightnessAtResolution(resolution, pool);
+            }
+            BrightnessPyramid pyramid = new BrightnessPyramid(brightnessTable, resolution, pool);
+            for (int coarser = resolution / 2; coarser >= 1; coarser /= 2) {
+                int level = coarser;
+                imagesData.getOrComputeProcessImage(image, level, () -> pyramid.getBrightness(level));
+            }
+            return pyramid.getBrightness(resolution);
+        });
     }
 }
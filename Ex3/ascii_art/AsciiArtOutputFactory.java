@@ -23,6 +23,12 @@ public class AsciiArtOutputFactory {
                 case "html":
                 asciiOutput = new HtmlAsciiOutput(params[0], params[1]);
                 break;
+            case "html-color":
+                asciiOutput = new HtmlColorAsciiOutput(params[0], params[1]);
+                break;
+            case "console-color":
+                asciiOutput = new AnsiColorAsciiOutput();
+                break;
         
             default:
                 asciiOutput = null;
@@ -0,0 +1,507 @@
+package ascii_art;
+
+import ascii_output.AnsiColorAsciiOutput;
+import ascii_output.AsciiOutput;
+import ascii_output.ColorAsciiOutput;
+import ascii_output.ConsoleAsciiOutput;
+import ascii_output.HtmlAsciiOutput;
+import ascii_output.HtmlColorAsciiOutput;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import image.Image;
+import image.ImageUtils;
+import image_char_matching.CharsData;
+import image_char_matching.SubImgCharMatcher;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A long running service that converts images to ASCII art over HTTP, on the local machine.
+ * One JVM serves every request, so the fonts, the brightness of the chars, the matchers of
+ * recently used charsets and the brightness tables of recent images all stay warm.
+ *
+ * POST /convert?res=&lt;resolution&gt;&amp;chars=&lt;charset&gt;&amp;format=&lt;format&gt;
+ * with the bytes of an image file as the body answers with the ASCII art. The charset has
+ * the format of the shell's add command and may be given several times; the format is one
+ * of the shell's output types: console, console-color, html or html-color. An optional
+ * lookup=&lt;buckets&gt; matches the chars through a lookup table of that many buckets
+ * instead of exactly.
+ * GET /stats answers with the number of requests and the p50 and p99 latency of the
+ * recent successful conversions.
+ *
+ * Requests run on virtual threads when the JVM has them, or on a bounded pool otherwise.
+ * The build targets release 17, which has no virtual threads, so on a Java 17 runtime the
+ * handlers always run on the bounded pool of twice as many threads as conversion slots;
+ * only the same classes run on a Java 21 or later runtime get virtual threads.
+ * At most a fixed number of conversions run at once: a request beyond that limit is
+ * answered at once with 503, before its body is read, instead of queueing.
+ * The size of an image is read from its header before it is decoded, and an image of more
+ * pixels than a fixed limit is refused, so a small file cannot decode to a huge image.
+ *
+ * Usage: AsciiArtServer [port] [max concurrent conversions]
+ */
+public class AsciiArtServer {
+    private static final String USAGE = "Usage: AsciiArtServer [port] [max concurrent conversions]";
+    private static final int DEFAULT_PORT = 8080;
+    private static final String CONVERT_PATH = "/convert";
+    private static final String STATS_PATH = "/stats";
+    private static final String POST = "POST";
+    private static final String GET = "GET";
+    private static final String RESOLUTION_PARAM = "res";
+    private static final String CHARS_PARAM = "chars";
+    private static final String FORMAT_PARAM = "format";
+    private static final String LOOKUP_PARAM = "lookup";
+    private static final int MAX_LOOKUP_BUCKETS = 1 << 16; // Keeps the tables of the cached matchers small
+    private static final int DEFAULT_RESOLUTION = 128;
+    private static final String DEFAULT_CHARS = "0-9";
+    private static final String ALL_CHARS = "all";
+    private static final String CONSOLE_FORMAT = "console";
+    private static final String CONSOLE_COLOR_FORMAT = "console-color";
+    private static final String HTML_FORMAT = "html";
+    private static final String HTML_COLOR_FORMAT = "html-color";
+    private static final String FONT = "Courier New";
+    private static final String TEXT_TYPE = "text/plain; charset=";
+    private static final String HTML_TYPE = "text/html; charset=";
+    private static final int OK = 200;
+    private static final int BAD_REQUEST = 400;
+    private static final int METHOD_NOT_ALLOWED = 405;
+    private static final int PAYLOAD_TOO_LARGE = 413;
+    private static final int INTERNAL_ERROR = 500;
+    private static final int UNAVAILABLE = 503;
+    private static final String RETRY_AFTER_SECONDS = "1";
+    private static final int MAX_BODY_BYTES = 64 << 20;
+    private static final long MAX_PIXELS = 1L << 25; // 128MB as packed ARGB ints
+    private static final int LATENCY_WINDOW = 4096; // Number of recent latencies kept for the stats
+    private static final double P50 = 0.5;
+    private static final double P99 = 0.99;
+    private static final double NANOS_PER_MILLI = 1e6;
+    // Threads of the fallback pool per conversion slot, the rest answer rejected requests
+    private static final int THREADS_PER_SLOT = 2;
+
+    private final HttpServer server; // The HTTP server, bound to the loopback address
+    private final ExecutorService executor; // Runs the handlers of the requests
+    private final Semaphore slots; // Conversions that may still start
+    private final int maxConversions; // Conversions that may run at once
+    private final LatencyRecorder latencies = new LatencyRecorder(LATENCY_WINDOW);
+    private final LongAdder converted = new LongAdder(); // Requests answered with ASCII art
+    private final LongAdder rejected = new LongAdder(); // Requests answered with 503
+    private final LongAdder failed = new LongAdder(); // Requests answered with another error
+
+    /**
+     * A fixed size window of the most recent latencies.
+     */
+    private static class LatencyRecorder {
+        private final long[] nanos; // The latencies, a ring buffer
+        private int next; // Where the next latency is written
+        private int count; // Number of latencies in the window
+
+        /**
+         * Creates an empty window.
+         *
+         * @param size The number of latencies kept.
+         */
+        LatencyRecorder(int size) {
+            nanos = new long[size];
+        }
+
+        /**
+         * Records a latency, replacing the oldest one if the window is full.
+         *
+         * @param latency The latency, in nanoseconds.
+         */
+        synchronized void record(long latency) {
+            nanos[next] = latency;
+            next = (next + 1) % nanos.length;
+            count = Math.min(count + 1, nanos.length);
+        }
+
+        /**
+         * Returns the given percentiles of the latencies in the window.
+         *
+         * @param percentiles The percentiles, each between 0 and 1.
+         * @return The latency at each percentile, in nanoseconds, or 0 if the window is empty.
+         */
+        long[] getPercentiles(double... percentiles) {
+            long[] sorted;
+            synchronized (this) {
+                sorted = Arrays.copyOf(nanos, count);
+            }
+            Arrays.sort(sorted);
+            long[] result = new long[percentiles.length];
+            for (int i = 0; i < percentiles.length && sorted.length > 0; i++) {
+                int rank = (int) Math.ceil(percentiles[i] * sorted.length) - 1;
+                result[i] = sorted[Math.max(0, rank)];
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Creates a server on the loopback address. It does not accept requests until started.
+     *
+     * @param port           The port to listen on, 0 for any free port.
+     * @param maxConversions The number of conversions that may run at once.
+     * @throws IOException If the port cannot be bound.
+     */
+    AsciiArtServer(int port, int maxConversions) throws IOException {
+        this.maxConversions = maxConversions;
+        slots = new Semaphore(maxConversions);
+        executor = createExecutor(maxConversions);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(executor);
+        server.createContext(CONVERT_PATH, this::handleConvert);
+        server.createContext(STATS_PATH, this::handleStats);
+    }
+
+    /**
+     * Warms up the fonts and the brightness of every printable char, then starts accepting
+     * requests.
+     */
+    void start() {
+        CharsData.getInstance().getMatcher(new UserActions().add(ALL_CHARS));
+        CharsData.getInstance().getMatcher(new UserActions().add(DEFAULT_CHARS));
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests, lets the current ones finish, and stops the threads.
+     */
+    void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    /**
+     * Returns the port the server listens on.
+     *
+     * @return The port.
+     */
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Creates the executor of the request handlers: one virtual thread per request if the
+     * JVM has virtual threads, found reflectively since the code is built for release 17,
+     * or otherwise a fixed pool with spare threads for answering rejected requests. On a
+     * Java 17 runtime the lookup always fails and the fixed pool is used.
+     *
+     * @param maxConversions The number of conversions that may run at once.
+     * @return The executor.
+     */
+    private static ExecutorService createExecutor(int maxConversions) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Executors.newFixedThreadPool(maxConversions * THREADS_PER_SLOT);
+        }
+    }
+
+    /**
+     * Handles a conversion request.
+     *
+     * @param exchange The request and its response.
+     * @throws IOException If the response cannot be sent.
+     */
+    private void handleConvert(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals(POST)) {
+                sendError(exchange, METHOD_NOT_ALLOWED, "Use POST with the image as the body");
+                return;
+            }
+            if (!slots.tryAcquire()) {
+                rejected.increment();
+                exchange.getResponseHeaders().set("Retry-After", RETRY_AFTER_SECONDS);
+                sendError(exchange, UNAVAILABLE, "Too many conversions in progress");
+                return;
+            }
+            try {
+                convert(exchange, start);
+            } finally {
+                slots.release();
+            }
+        }
+    }
+
+    /**
+     * Converts the image of a request and sends the ASCII art. The latency of the request is
+     * recorded once the ASCII art is sent.
+     *
+     * @param exchange The request and its response.
+     * @param start    The time the request was received, from System.nanoTime.
+     * @throws IOException If the response cannot be sent.
+     */
+    private void convert(HttpExchange exchange, long start) throws IOException {
+        int resolution = DEFAULT_RESOLUTION;
+        HashSet<Character> chars = new HashSet<>();
+        String format = CONSOLE_FORMAT;
+        int lookupBuckets = 0;
+        String query = exchange.getRequestURI().getRawQuery();
+        for (String param : query == null ? new String[0] : query.split("&")) {
+            int equals = param.indexOf('=');
+            String name = equals < 0 ? param : param.substring(0, equals);
+            String value = equals < 0 ? "" :
+                    URLDecoder.decode(param.substring(equals + 1), StandardCharsets.UTF_8);
+            switch (name) {
+                case RESOLUTION_PARAM:
+                    try {
+                        resolution = Integer.parseInt(value);
+                    } catch (NumberFormatException e) {
+                        sendError(exchange, BAD_REQUEST, "Invalid resolution: " + value);
+                        return;
+                    }
+                    break;
+                case CHARS_PARAM:
+                    char[] added = new UserActions().add(value);
+                    if (added == null) {
+                        sendError(exchange, BAD_REQUEST, "Invalid charset: " + value);
+                        return;
+                    }
+                    for (char c : added) {
+                        chars.add(c);
+                    }
+                    break;
+                case FORMAT_PARAM:
+                    format = value;
+                    break;
+                case LOOKUP_PARAM:
+                    try {
+                        lookupBuckets = Integer.parseInt(value);
+                    } catch (NumberFormatException e) {
+                        lookupBuckets = -1;
+                    }
+                    if (lookupBuckets < 1 || lookupBuckets > MAX_LOOKUP_BUCKETS) {
+                        sendError(exchange, BAD_REQUEST, "Lookup buckets must be between 1 and " +
+                                MAX_LOOKUP_BUCKETS + ": " + value);
+                        return;
+                    }
+                    break;
+                default:
+                    sendError(exchange, BAD_REQUEST, "Unknown parameter: " + name);
+                    return;
+            }
+        }
+        char[] charset = chars.isEmpty() ? new UserActions().add(DEFAULT_CHARS) : toArray(chars);
+
+        byte[] body;
+        try (InputStream in = exchange.getRequestBody()) {
+            body = in.readNBytes(MAX_BODY_BYTES + 1);
+        }
+        if (body.length > MAX_BODY_BYTES) {
+            sendError(exchange, PAYLOAD_TOO_LARGE, "Images are limited to " + MAX_BODY_BYTES + " bytes");
+            return;
+        }
+        Image image;
+        try {
+            long pixels = countPixels(body);
+            if (pixels > MAX_PIXELS) {
+                sendError(exchange, PAYLOAD_TOO_LARGE,
+                        "Images are limited to " + MAX_PIXELS + " pixels");
+                return;
+            }
+            image = new Image(body);
+        } catch (IOException e) {
+            sendError(exchange, BAD_REQUEST, e.getMessage());
+            return;
+        }
+        if (Integer.bitCount(resolution) != 1 ||
+                !ImageUtils.isResolutionValid(image.getWidth(), image.getHeight(), resolution)) {
+            sendError(exchange, BAD_REQUEST,
+                    "Resolution must be a power of 2 that divides the image into squares: " + resolution);
+            return;
+        }
+
+        ByteArrayOutputStream art = new ByteArrayOutputStream();
+        AsciiOutput output;
+        String contentType;
+        switch (format) {
+            case CONSOLE_FORMAT:
+                output = new ConsoleAsciiOutput(art);
+                contentType = TEXT_TYPE;
+                break;
+            case CONSOLE_COLOR_FORMAT:
+                output = new AnsiColorAsciiOutput(art);
+                contentType = TEXT_TYPE;
+                break;
+            case HTML_FORMAT:
+                output = new HtmlAsciiOutput(art, FONT);
+                contentType = HTML_TYPE;
+                break;
+            case HTML_COLOR_FORMAT:
+                output = new HtmlColorAsciiOutput(art, FONT);
+                contentType = HTML_TYPE;
+                break;
+            default:
+                sendError(exchange, BAD_REQUEST, "Unknown format: " + format);
+                return;
+        }
+        try {
+            SubImgCharMatcher matcher = CharsData.getInstance().getMatcher(charset, lookupBuckets);
+            boolean withColor = output instanceof ColorAsciiOutput;
+            AsciiArtAlgorithm algorithm = new AsciiArtAlgorithm.Builder(image, resolution)
+                    .charMatcher(matcher).withColor(withColor).build();
+            char[][] result = algorithm.run();
+            if (withColor) {
+                ((ColorAsciiOutput) output).out(result, algorithm.getColors());
+            } else {
+                output.out(result);
+            }
+        } catch (RuntimeException e) {
+            sendError(exchange, INTERNAL_ERROR, "Conversion failed: " + e);
+            return;
+        }
+        send(exchange, OK, contentType + Charset.defaultCharset().name(), art.toByteArray());
+        converted.increment();
+        latencies.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Reads the width and height of an image from its header, without decoding its pixels.
+     *
+     * @param encoded The bytes of the image file.
+     * @return The number of pixels of the image.
+     * @throws IOException If the format is not supported or the header cannot be read.
+     */
+    private static long countPixels(byte[] encoded) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(encoded))) {
+            Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("Unsupported image format");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                return (long) reader.getWidth(0) * reader.getHeight(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Handles a request for the statistics of the server.
+     *
+     * @param exchange The request and its response.
+     * @throws IOException If the response cannot be sent.
+     */
+    private void handleStats(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals(GET)) {
+                sendError(exchange, METHOD_NOT_ALLOWED, "Use GET");
+                return;
+            }
+            long[] percentiles = latencies.getPercentiles(P50, P99);
+            String stats = String.format("converted %d%nrejected %d%nfailed %d%nin_progress %d%n" +
+                            "max_concurrent %d%np50_ms %.2f%np99_ms %.2f%n",
+                    converted.sum(), rejected.sum(), failed.sum(),
+                    maxConversions - slots.availablePermits(), maxConversions,
+                    percentiles[0] / NANOS_PER_MILLI, percentiles[1] / NANOS_PER_MILLI);
+            send(exchange, OK, TEXT_TYPE + StandardCharsets.US_ASCII.name(),
+                    stats.getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    /**
+     * Sends an error response with a one line message, counting it as failed unless it is a
+     * rejection for backpressure.
+     *
+     * @param exchange The request and its response.
+     * @param status   The HTTP status.
+     * @param message  The message.
+     * @throws IOException If the response cannot be sent.
+     */
+    private void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        if (status != UNAVAILABLE) {
+            failed.increment();
+        }
+        send(exchange, status, TEXT_TYPE + StandardCharsets.UTF_8.name(),
+                (message + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Sends a response with a body of known length.
+     *
+     * @param exchange    The request and its response.
+     * @param status      The HTTP status.
+     * @param contentType The content type of the body.
+     * @param body        The body.
+     * @throws IOException If the response cannot be sent.
+     */
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body)
+            throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Converts a set of chars to an array.
+     *
+     * @param chars The chars.
+     * @return The chars in an array, in any order.
+     */
+    private static char[] toArray(HashSet<Character> chars) {
+        char[] array = new char[chars.size()];
+        int index = 0;
+        for (char c : chars) {
+            array[index++] = c;
+        }
+        return array;
+    }
+
+    /**
+     * Parses the command-line arguments and runs the server until the JVM is stopped.
+     *
+     * @param args The command-line arguments, see the class documentation.
+     */
+    public static void main(String[] args) {
+        int port = DEFAULT_PORT;
+        int maxConversions = Runtime.getRuntime().availableProcessors();
+        try {
+            if (args.length > 0) {
+                port = Integer.parseInt(args[0]);
+            }
+            if (args.length > 1) {
+                maxConversions = Integer.parseInt(args[1]);
+            }
+        } catch (NumberFormatException e) {
+            System.err.println(USAGE);
+            return;
+        }
+        if (port < 0 || maxConversions < 1) {
+            System.err.println(USAGE);
+            return;
+        }
+        try {
+            AsciiArtServer server = new AsciiArtServer(port, maxConversions);
+            server.start();
+            System.err.printf("Listening on http://localhost:%d%s, at most %d conversions at once%n",
+                    server.getPort(), CONVERT_PATH, maxConversions);
+        } catch (IOException e) {
+            System.err.println("Cannot start the server: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package ascii_art;
+
+import ascii_output.ConsoleAsciiOutput;
+import ascii_output.HtmlAsciiOutput;
+import ascii_output.RowAsciiOutput;
+import exceptions.InvalidResolutionException;
+import image.Image;
+import image.ImageUtils;
+import image_char_matching.CharsData;
+import image_char_matching.SubImgCharMatcher;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A non-interactive entry point that converts a whole directory of images to ASCII art.
+ * The images are converted concurrently on a fixed size pool of workers. The character
+ * matcher is built once and shared, read only, by all workers.
+ * For every image the time it took is reported, followed by the overall throughput.
+ *
+ * Usage: BatchConverter &lt;directory or glob&gt; &lt;charset&gt; &lt;resolution&gt;
+ * &lt;console|html&gt; [threads] [--stream] [--lookup]
+ * The charset has the same format as the shell's add command, for example "all" or "a-z".
+ * HTML output is written to one file per image, named after the image, in the current directory.
+ * Images that share a name but not an extension, such as a.png and a.jpg, keep their extension
+ * in the name of their output, so no two images are written to the same file.
+ * An image whose size does not allow the resolution is reported and skipped.
+ * With --stream, images are decoded and written one row of squares at a time.
+ * With --lookup, the brightness of each square is quantized and its char read from the lookup
+ * table of the matcher, instead of searching the charset for the closest brightness.
+ * The flags may come anywhere among the other arguments.
+ */
+public class BatchConverter {
+    private static final String USAGE = "Usage: BatchConverter <directory or glob> <charset> " +
+            "<resolution> <console|html> [threads] [--stream] [--lookup]";
+    private static final String CONSOLE_OUTPUT = "console";
+    private static final String HTML_OUTPUT = "html";
+    private static final String HTML_EXTENSION = ".html";
+    private static final String FLAG_PREFIX = "--";
+    private static final String STREAM_FLAG = "--stream";
+    private static final String LOOKUP_FLAG = "--lookup";
+    private static final int LOOKUP_BUCKETS = 4096; // Buckets of the lookup table with --lookup
+    private static final int MIN_ARGS = 4; // Arguments up to the output type
+    private static final int MAX_ARGS = 5; // Arguments up to the number of threads
+    private static final String FONT = "Courier New";
+    private static final String GLOB_PREFIX = "glob:";
+    private static final double NANOS_PER_MILLI = 1e6;
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final SubImgCharMatcher charMatcher; // Matcher shared by all workers
+    private final int resolution; // Resolution used for every image
+    private final String outputType; // "console" or "html"
+    private final boolean stream; // Whether to convert row by row
+    private final Object consoleLock = new Object(); // Keeps console frames from interleaving
+
+    /**
+     * Creates a new BatchConverter.
+     *
+     * @param charset       The characters used for every image.
+     * @param resolution    The resolution used for every image.
+     * @param outputType    The type of output, "console" or "html".
+     * @param stream        Whether to decode and write the images row by row.
+     * @param lookupBuckets The number of buckets of the lookup table of the matcher, or 0 to
+     *                      match exactly.
+     */
+    BatchConverter(char[] charset, int resolution, String outputType, boolean stream, int lookupBuckets) {
+        this.resolution = resolution;
+        this.outputType = outputType;
+        this.stream = stream;
+        this.charMatcher = CharsData.getInstance().getMatcher(charset, lookupBuckets);
+    }
+
+    /**
+     * Converts all the given images on a pool of the given size, and reports the
+     * latency of each image and the overall throughput.
+     *
+     * @param files   The images to convert.
+     * @param threads The number of workers.
+     * @throws InterruptedException If interrupted while waiting for the workers.
+     */
+    void convertAll(List<Path> files, int threads) throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        List<Future<Long>> results = new ArrayList<>();
+        List<String> outputNames = getOutputNames(files);
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            String outputName = outputNames.get(i);
+            results.add(workers.submit(() -> convert(file, outputName)));
+        }
+        int converted = 0;
+        for (int i = 0; i < files.size(); i++) {
+            try {
+                long nanos = results.get(i).get();
+                converted++;
+                System.err.printf("%s: %.1f ms%n", files.get(i), nanos / NANOS_PER_MILLI);
+            } catch (ExecutionException e) {
+                System.err.printf("%s: failed (%s)%n", files.get(i), e.getCause().getMessage());
+            }
+        }
+        workers.shutdown();
+        double seconds = (System.nanoTime() - start) / NANOS_PER_SECOND;
+        System.err.printf("Converted %d of %d images in %.2f s (%.1f images/sec)%n",
+                converted, files.size(), seconds, converted / seconds);
+    }
+
+    /**
+     * Converts one image and writes its output.
+     *
+     * @param file       The image to convert.
+     * @param outputName The name of the HTML file of the image.
+     * @return The time it took, in nanoseconds.
+     * @throws IOException                If the image cannot be read.
+     * @throws InvalidResolutionException If the image cannot be divided at the resolution.
+     */
+    private long convert(Path file, String outputName) throws IOException, InvalidResolutionException {
+        long start = System.nanoTime();
+        RowAsciiOutput output = createOutput(outputName);
+        if (stream) {
+            // The streaming algorithm checks the resolution before it writes anything
+            new StreamingAsciiArtAlgorithm(file.toString(), resolution, charMatcher).run(output);
+        } else {
+            Image image = new Image(file.toString());
+            if (!ImageUtils.isResolutionValid(image.getWidth(), image.getHeight(), resolution)) {
+                throw new InvalidResolutionException(String.format("Resolution %d is out of bounds " +
+                        "for a %dx%d image", resolution, image.getWidth(), image.getHeight()));
+            }
+            // Every image of a batch is converted once, so nothing in the shared cache is reused
+            AsciiArtAlgorithm algorithm = new AsciiArtAlgorithm.Builder(image, resolution)
+                    .charMatcher(charMatcher).cached(false).build();
+            output.out(algorithm.run());
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Names the HTML file of each image after the image. Images whose names differ only in
+     * their extension keep the extension, and a number is added to any name still taken.
+     * Names are compared ignoring case, as some file systems do.
+     *
+     * @param files The images, in order.
+     * @return The name of the HTML file of each image, in the same order.
+     */
+    private static List<String> getOutputNames(List<Path> files) {
+        Map<String, Integer> baseNameCounts = new HashMap<>();
+        for (Path file : files) {
+            baseNameCounts.merge(getBaseName(file).toLowerCase(Locale.ROOT), 1, Integer::sum);
+        }
+        Set<String> taken = new HashSet<>();
+        List<String> names = new ArrayList<>();
+        for (Path file : files) {
+            String baseName = getBaseName(file);
+            String name = baseNameCounts.get(baseName.toLowerCase(Locale.ROOT)) > 1 ?
+                    file.getFileName().toString() : baseName;
+            String unique = name;
+            for (int copy = 2; !taken.add(unique.toLowerCase(Locale.ROOT)); copy++) {
+                unique = name + "-" + copy;
+            }
+            names.add(unique + HTML_EXTENSION);
+        }
+        return names;
+    }
+
+    /**
+     * Returns the name of a file without its extension.
+     *
+     * @param file The file.
+     * @return The name of the file up to its last dot.
+     */
+    private static String getBaseName(Path file) {
+        String name = file.getFileName().toString();
+        int extension = name.lastIndexOf('.');
+        return extension > 0 ? name.substring(0, extension) : name;
+    }
+
+    /**
+     * Creates the output of one image. Console output is collected and printed as
+     * a whole, so that frames of images converted concurrently do not interleave.
+     *
+     * @param outputName The name of the HTML file of the image.
+     * @return The output of the image.
+     */
+    private RowAsciiOutput createOutput(String outputName) {
+        if (outputType.equals(HTML_OUTPUT)) {
+            return new HtmlAsciiOutput(outputName, FONT);
+        }
+        return new RowAsciiOutput() {
+            private final List<char[]> collected = new ArrayList<>();
+
+            @Override
+            public void begin(int rows, int cols) {
+            }
+
+            @Override
+            public void outRow(char[] row) {
+                collected.add(row.clone());
+            }
+
+            @Override
+            public void end() {
+                synchronized (consoleLock) {
+                    new ConsoleAsciiOutput().out(collected.toArray(new char[0][]));
+                }
+            }
+        };
+    }
+
+    /**
+     * Lists the images of a directory, or the files matching a glob pattern.
+     *
+     * @param pattern A directory, or a path whose file name is a glob pattern.
+     * @return The matching files, sorted by name.
+     * @throws IOException If the directory cannot be listed.
+     */
+    private static List<Path> listFiles(String pattern) throws IOException {
+        Path path = Paths.get(pattern);
+        Path directory;
+        PathMatcher matcher;
+        if (Files.isDirectory(path)) {
+            directory = path;
+            matcher = p -> true;
+        } else {
+            directory = path.getParent() == null ? Paths.get(".") : path.getParent();
+            matcher = FileSystems.getDefault().getPathMatcher(GLOB_PREFIX + path.getFileName());
+        }
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                if (Files.isRegularFile(entry) && matcher.matches(entry.getFileName())) {
+                    files.add(entry);
+                }
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    /**
+     * Parses the command-line arguments and converts the images.
+     *
+     * @param args The command-line arguments, see the class documentation.
+     */
+    public static void main(String[] args) {
+        List<String> positional = new ArrayList<>();
+        boolean stream = false;
+        boolean lookup = false;
+        for (String arg : args) {
+            if (arg.equals(STREAM_FLAG)) {
+                stream = true;
+            } else if (arg.equals(LOOKUP_FLAG)) {
+                lookup = true;
+            } else if (arg.startsWith(FLAG_PREFIX)) {
+                System.err.println(USAGE);
+                return;
+            } else {
+                positional.add(arg);
+            }
+        }
+        if (positional.size() < MIN_ARGS || positional.size() > MAX_ARGS) {
+            System.err.println(USAGE);
+            return;
+        }
+        char[] charset = new UserActions().add(positional.get(1));
+        String outputType = positional.get(3);
+        int resolution;
+        int threads;
+        try {
+            resolution = Integer.parseInt(positional.get(2));
+            threads = positional.size() == MAX_ARGS ? Integer.parseInt(positional.get(4)) :
+                    Runtime.getRuntime().availableProcessors();
+        } catch (NumberFormatException e) {
+            System.err.println(USAGE);
+            return;
+        }
+        if (charset == null || resolution < 1 || threads < 1 ||
+                !(outputType.equals(CONSOLE_OUTPUT) || outputType.equals(HTML_OUTPUT))) {
+            System.err.println(USAGE);
+            return;
+        }
+        try {
+            List<Path> files = listFiles(positional.get(0));
+            new BatchConverter(charset, resolution, outputType, stream, lookup ? LOOKUP_BUCKETS : 0)
+                    .convertAll(files, threads);
+        } catch (IOException e) {
+            System.err.println("Cannot list images: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package ascii_art;
+
+import exceptions.InvalidResolutionException;
+import image.Image;
+import image.ImageUtils;
+import image_char_matching.SubImgCharMatcher;
+
+import java.util.Arrays;
+
+/**
+ * A variant of the AsciiArtAlgorithm for sequences of frames of the same size, such as an
+ * animation. Consecutive frames usually differ in a small part only, so the pixels of each
+ * frame are compared with the previous frame, square by square, and only the squares whose
+ * pixels changed have their brightness and char computed again. The comparison is exact, so
+ * every frame is identical to running the AsciiArtAlgorithm on it alone.
+ */
+public class FrameSequenceAsciiArt {
+    private final int resolution; // Resolution for dividing the frames into squares
+    private final SubImgCharMatcher charMatcher; // Matcher of the characters used for the frames
+    private int[] pixels; // The pixels of the current frame, row-major
+    private int[] previousPixels; // The pixels of the previous frame, row-major
+    private int width; // Width of the frames
+    private int height; // Height of the frames
+    private char[][] chars; // The chars of the current frame
+    private long squaresComputed; // Number of squares whose char was computed
+    private long squaresTotal; // Number of squares in all frames so far
+
+    /**
+     * Constructs a FrameSequenceAsciiArt object.
+     *
+     * @param resolution  The resolution for dividing the frames into squares.
+     * @param charMatcher The matcher of the characters to be used for the frames.
+     */
+    public FrameSequenceAsciiArt(int resolution, SubImgCharMatcher charMatcher) {
+        this.resolution = resolution;
+        this.charMatcher = charMatcher;
+    }
+
+    /**
+     * Converts the next frame of the sequence. The frame may be reused by the caller after
+     * the call. If its size differs from the previous frame, every square is computed.
+     * The resolution is checked against the first frame, and again whenever the size changes.
+     *
+     * @param frame The next frame.
+     * @return The chars of the frame. The array is reused for the next frame.
+     * @throws InvalidResolutionException If the frame cannot be divided at the resolution.
+     */
+    public char[][] next(Image frame) throws InvalidResolutionException {
+        boolean sameSize = pixels != null && frame.getWidth() == width && frame.getHeight() == height;
+        if (!sameSize) {
+            if (!ImageUtils.isResolutionValid(frame.getWidth(), frame.getHeight(), resolution)) {
+                throw new InvalidResolutionException(String.format("Resolution %d is out of bounds " +
+                        "for a %dx%d frame", resolution, frame.getWidth(), frame.getHeight()));
+            }
+            width = frame.getWidth();
+            height = frame.getHeight();
+            pixels = new int[width * height];
+            previousPixels = null;
+            chars = new char[resolution][resolution];
+        } else {
+            int[] swap = previousPixels == null ? new int[pixels.length] : previousPixels;
+            previousPixels = pixels;
+            pixels = swap;
+        }
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                pixels[i * width + j] = frame.getRGB(i, j);
+            }
+        }
+
+        // Squares are laid out over the padded frame exactly as in the AsciiArtAlgorithm
+        int paddedWidth = ImageUtils.closestPowerOfTwo(width);
+        int paddedHeight = ImageUtils.closestPowerOfTwo(height);
+        int padLeft = (paddedWidth - width) / 2;
+        int padTop = (paddedHeight - height) / 2;
+        int squareSize = paddedHeight / resolution;
+        long squarePixels = (long) squareSize * squareSize;
+        for (int i = 0; i < resolution; i++) {
+            int firstRow = Math.max(0, i * squareSize - padTop);
+            int lastRow = Math.min(height, (i + 1) * squareSize - padTop);
+            for (int j = 0; j < resolution; j++) {
+                int firstCol = Math.max(0, j * squareSize - padLeft);
+                int lastCol = Math.min(width, (j + 1) * squareSize - padLeft);
+                boolean inside = firstRow < lastRow && firstCol < lastCol;
+                if (previousPixels != null && (!inside || !changed(firstRow, lastRow, firstCol, lastCol))) {
+                    continue;
+                }
+                long sum = 0;
+                long insidePixels = 0;
+                if (inside) {
+                    for (int row = firstRow; row < lastRow; row++) {
+                        for (int col = firstCol; col < lastCol; col++) {
+                            sum += ImageUtils.getLuminance(pixels[row * width + col]);
+                        }
+                    }
+                    insidePixels = (long) (lastRow - firstRow) * (lastCol - firstCol);
+                }
+                // Pixels of the square outside the frame are white padding
+                sum += (squarePixels - insidePixels) * ImageUtils.WHITE_LUMINANCE;
+                chars[i][j] = charMatcher.getCharByImageBrightness(
+                        ImageUtils.brightnessOfSum(sum, squarePixels));
+                squaresComputed++;
+            }
+        }
+        squaresTotal += (long) resolution * resolution;
+        return chars;
+    }
+
+    /**
+     * Returns the share of squares whose char was computed, out of all squares of all
+     * frames converted so far.
+     *
+     * @return A value between 0 and 1.
+     */
+    public double getComputedRatio() {
+        return squaresTotal == 0 ? 0 : (double) squaresComputed / squaresTotal;
+    }
+
+    /**
+     * Checks whether any pixel of a rectangle differs from the previous frame.
+     *
+     * @param firstRow The first row of the rectangle (inclusive).
+     * @param lastRow  The last row of the rectangle (exclusive).
+     * @param firstCol The first column of the rectangle (inclusive).
+     * @param lastCol  The last column of the rectangle (exclusive).
+     * @return Whether the rectangle changed.
+     */
+    private boolean changed(int firstRow, int lastRow, int firstCol, int lastCol) {
+        for (int row = firstRow; row < lastRow; row++) {
+            int start = row * width;
+            if (!Arrays.equals(pixels, start + firstCol, start + lastCol,
+                    previousPixels, start + firstCol, start + lastCol)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -23,10 +23,18 @@ public class Shell {
     private static final String CHANGE_IMG = "image";
     private static final String CHANGE_OUTPUT = "output";
     private static final String RUN_ALGORITHM = "asciiArt";
+    private static final String CHANGE_PARALLELISM = "parallel";
+    private static final String CHANGE_MATCHING = "match";
+    private static final String CHANGE_DITHERING = "dither";
+    private static final String CHANGE_ASPECT = "aspect";
     private static final String INIT_PROMPT = ">>> ";
     private static final String INVALID_RESOLUTION = "Did not change resolution due to exceeding boundaries.";
     private static final String INVALID_RES_PARAMETER = "Did not change resolution due to incorrect format.";
     private static final String CHANGE_RESOLUTION_PROMPT = "Resolution set to ";
+    private static final String CHANGE_PARALLELISM_PROMPT = "Parallelism set to ";
+    private static final String CHANGE_MATCHING_PROMPT = "Matching set to ";
+    private static final String CHANGE_DITHERING_PROMPT = "Dithering set to ";
+    private static final String CHANGE_ASPECT_PROMPT = "Aspect set to ";
     private static final String EMPTY_CHARS_SET = "Did not execute. Charset is empty.";
     private static final String INVALID_IMG = "Did not execute due to problem with the image file.";
     private static final String INVALID_CHAR_TO_REMOVE = "Did not remove due to incorrect format.";
@@ -107,6 +115,18 @@ public class Shell {
                 case RUN_ALGORITHM:
                     runAsciiAlgorithm();
                     break;
+                case CHANGE_PARALLELISM:
+                    changeParallelism(userInput);
+                    break;
+                case CHANGE_MATCHING:
+                    changeMatching(userInput);
+                    break;
+                case CHANGE_DITHERING:
+                    changeDithering(userInput);
+                    break;
+                case CHANGE_ASPECT:
+                    changeAspect(userInput);
+                    break;
                 case ADD_CHAR:
                     addCharacter(userInput);
                     break;
@@ -160,6 +180,50 @@ public class Shell {
         this.asciiOutput = userActions.changeOutput(userInput[1]);
     }
 
+    /**
+     * Changes the number of threads used for computing brightness based on user input.
+     *
+     * @param userInput The array containing user input commands.
+     * @throws InvalidParametersException If the specified parallelism level is invalid.
+     */
+    private void changeParallelism(String[] userInput) throws InvalidParametersException {
+        int parallelism = userActions.changeParallelism(userInput[1]);
+        System.out.println(CHANGE_PARALLELISM_PROMPT + parallelism);
+    }
+
+    /**
+     * Changes how squares are matched to characters based on user input.
+     *
+     * @param userInput The array containing user input commands.
+     * @throws InvalidParametersException If the specified matching mode is invalid.
+     */
+    private void changeMatching(String[] userInput) throws InvalidParametersException {
+        String mode = userActions.changeMatching(userInput[1]);
+        System.out.println(CHANGE_MATCHING_PROMPT + mode);
+    }
+
+    /**
+     * Changes how brightness is dithered before matching based on user input.
+     *
+     * @param userInput The array containing user input commands.
+     * @throws InvalidParametersException If the specified dithering method is invalid.
+     */
+    private void changeDithering(String[] userInput) throws InvalidParametersException {
+        String method = userActions.changeDithering(userInput[1]);
+        System.out.println(CHANGE_DITHERING_PROMPT + method);
+    }
+
+    /**
+     * Changes the shape of the cells the image is divided into based on user input.
+     *
+     * @param userInput The array containing user input commands.
+     * @throws InvalidParametersException If the specified aspect is invalid.
+     */
+    private void changeAspect(String[] userInput) throws InvalidParametersException {
+        String aspect = userActions.changeAspect(userInput[1]);
+        System.out.println(CHANGE_ASPECT_PROMPT + aspect);
+    }
+
     /**
      * Runs the ASCII art generation algorithm based on current settings and displays the result.
      *
@@ -175,6 +239,10 @@ public class Shell {
         for (char c : charSet) {
             charArray[index++] = c;
         }
+        if (asciiOutput instanceof ColorAsciiOutput) {
+            userActions.runColorAsciiAlgorithm(image, resolution, charArray, (ColorAsciiOutput) asciiOutput);
+            return;
+        }
         char[][] img = userActions.runAsciiAlgorithm(image, resolution, charArray);
         asciiOutput.out(img);
     }
@@ -0,0 +1,220 @@
+package ascii_art;
+
+import ascii_output.RowAsciiOutput;
+import exceptions.InvalidResolutionException;
+import image.Image;
+import image.ImageUtils;
+import image_char_matching.CharsData;
+import image_char_matching.SubImgCharMatcher;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+/**
+ * A streaming variant of the AsciiArtAlgorithm for images too large to hold in memory.
+ * The image file is read one band of rows at a time, each band exactly one row of squares
+ * high. The brightness of the squares of the band is summed straight from the rows read,
+ * and the finished row of chars is pushed to a row oriented output before the next band is
+ * read. The padded image, its squares and the full brightness and char arrays are never
+ * materialized, so peak memory is proportional to the image width times the square size.
+ * The result is identical to the AsciiArtAlgorithm on the same image.
+ * Reading a band must not mean decoding every row above it again, so only files whose rows
+ * can be read directly are streamed: binary PPM and PGM files, which are memory-mapped, and
+ * formats whose ImageIO reader reports easy random access or tiles, such as uncompressed BMP or
+ * tiled TIFF. Sequentially compressed formats such as PNG and JPEG are rejected: decoding them
+ * band by band would decode the image again from the top for every band.
+ */
+public class StreamingAsciiArtAlgorithm {
+    private final String filename; // The path of the input image
+    private final int resolution; // Resolution for dividing the image into squares
+    private final SubImgCharMatcher charMatcher; // Matches the brightness of each square to a char
+
+    /**
+     * A source of the rows of the image, read one band at a time.
+     */
+    private interface BandSource {
+        /**
+         * Reads the rows of a band in order, passing the luminance of each row to an action.
+         *
+         * @param firstRow The first row of the band (inclusive).
+         * @param lastRow  The last row of the band (exclusive).
+         * @param rowSum   The action run on the scaled luminance of each row. The array is reused.
+         * @throws IOException If the rows cannot be read.
+         */
+        void readBand(int firstRow, int lastRow, Consumer<int[]> rowSum) throws IOException;
+    }
+
+    /**
+     * Constructs a StreamingAsciiArtAlgorithm object with the specified parameters.
+     *
+     * @param filename      The path of the image file to be converted to ASCII art.
+     * @param resolution    The resolution for dividing the image into squares.
+     * @param charsForImage An array of characters to be used for representing different brightness levels.
+     */
+    public StreamingAsciiArtAlgorithm(String filename, int resolution, char[] charsForImage) {
+        this(filename, resolution, CharsData.getInstance().getMatcher(charsForImage));
+    }
+
+    /**
+     * Constructs a StreamingAsciiArtAlgorithm object that matches chars with the given matcher.
+     *
+     * @param filename    The path of the image file to be converted to ASCII art.
+     * @param resolution  The resolution for dividing the image into squares.
+     * @param charMatcher The matcher of the chars, for example one with a lookup table.
+     */
+    public StreamingAsciiArtAlgorithm(String filename, int resolution, SubImgCharMatcher charMatcher) {
+        this.filename = filename;
+        this.resolution = resolution;
+        this.charMatcher = charMatcher;
+    }
+
+    /**
+     * Runs the ASCII art algorithm on the image file, writing each row of chars to the output
+     * as soon as it is computed.
+     *
+     * @param output The output the rows are written to.
+     * @throws IOException                If the image file cannot be read, or its format does not
+     *                                    allow reading its rows directly.
+     * @throws InvalidResolutionException If the image cannot be divided at the resolution.
+     */
+    public void run(RowAsciiOutput output) throws IOException, InvalidResolutionException {
+        if (Image.isPortableAnymap(filename)) {
+            // The file is mapped, so any band is read straight from the mapping
+            Image image = new Image(filename);
+            int width = image.getWidth();
+            int[] rowLuminance = new int[width];
+            run(width, image.getHeight(), (firstRow, lastRow, rowSum) -> {
+                for (int y = firstRow; y < lastRow; y++) {
+                    for (int x = 0; x < width; x++) {
+                        rowLuminance[x] = image.getLuminance(y, x);
+                    }
+                    rowSum.accept(rowLuminance);
+                }
+            }, output);
+            return;
+        }
+        try (ImageInputStream stream = ImageIO.createImageInputStream(new File(filename))) {
+            if (stream == null) {
+                throw new IOException("Cannot open image file: " + filename);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format: " + filename);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, false, true);
+                if (!reader.isRandomAccessEasy(0) && !reader.isImageTiled(0)) {
+                    throw new IOException(String.format("Cannot stream %s: its %s rows can only be " +
+                            "decoded from the top, convert it to PPM or PGM", filename, reader.getFormatName()));
+                }
+                run(reader, output);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Runs the algorithm band by band on an image reader.
+     *
+     * @param reader The reader of the image, with its input set.
+     * @param output The output the rows are written to.
+     * @throws IOException                If the image cannot be decoded.
+     * @throws InvalidResolutionException If the image cannot be divided at the resolution.
+     */
+    private void run(ImageReader reader, RowAsciiOutput output) throws IOException, InvalidResolutionException {
+        int width = reader.getWidth(0);
+        int[] rowPixels = new int[width];
+        ImageReadParam param = reader.getDefaultReadParam();
+        run(width, reader.getHeight(0), (firstRow, lastRow, rowSum) -> {
+            param.setSourceRegion(new Rectangle(0, firstRow, width, lastRow - firstRow));
+            BufferedImage band = reader.read(0, param);
+            for (int y = 0; y < band.getHeight(); y++) {
+                band.getRGB(0, y, width, 1, rowPixels, 0, width);
+                for (int x = 0; x < width; x++) {
+                    rowPixels[x] = ImageUtils.getLuminance(rowPixels[x]);
+                }
+                rowSum.accept(rowPixels);
+            }
+        }, output);
+    }
+
+    /**
+     * Runs the algorithm band by band on a source of rows.
+     *
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @param source The source of the rows of the image.
+     * @param output The output the rows are written to.
+     * @throws IOException                If the rows cannot be read.
+     * @throws InvalidResolutionException If the image cannot be divided at the resolution.
+     */
+    private void run(int width, int height, BandSource source, RowAsciiOutput output)
+            throws IOException, InvalidResolutionException {
+        if (!ImageUtils.isResolutionValid(width, height, resolution)) {
+            throw new InvalidResolutionException(String.format(
+                    "Resolution %d is out of bounds for a %dx%d image", resolution, width, height));
+        }
+        // The padding is virtual: compute where the image sits in the padded image
+        int paddedWidth = ImageUtils.closestPowerOfTwo(width);
+        int paddedHeight = ImageUtils.closestPowerOfTwo(height);
+        int padLeft = (paddedWidth - width) / 2;
+        int padTop = (paddedHeight - height) / 2;
+        int squareSize = paddedHeight / resolution;
+        long squarePixels = (long) squareSize * squareSize;
+
+        long[] squareSums = new long[resolution];
+        int[] squarePixelsInImage = new int[resolution];
+        char[] rowChars = new char[resolution];
+
+        output.begin(resolution, resolution);
+        for (int i = 0; i < resolution; i++) {
+            Arrays.fill(squareSums, 0);
+            Arrays.fill(squarePixelsInImage, 0);
+            // Rows of the image file covered by this row of squares
+            int firstRow = Math.max(0, i * squareSize - padTop);
+            int lastRow = Math.min(height, (i + 1) * squareSize - padTop);
+            if (firstRow < lastRow) {
+                source.readBand(firstRow, lastRow,
+                        rowLuminance -> sumRow(rowLuminance, padLeft, squareSize, squareSums, squarePixelsInImage));
+            }
+            for (int j = 0; j < resolution; j++) {
+                // Pixels of the square outside the image are white padding
+                long sum = squareSums[j] + (squarePixels - squarePixelsInImage[j]) * ImageUtils.WHITE_LUMINANCE;
+                rowChars[j] = charMatcher.getCharByImageBrightness(
+                        ImageUtils.brightnessOfSum(sum, squarePixels));
+            }
+            output.outRow(rowChars);
+        }
+        output.end();
+    }
+
+    /**
+     * Adds the luminance of one row of the image to the sums of the squares it crosses.
+     *
+     * @param rowLuminance        The scaled luminance of the pixels of the row.
+     * @param padLeft             The number of padding columns left of the image.
+     * @param squareSize          The size of each square.
+     * @param squareSums          The luminance sums of the row of squares.
+     * @param squarePixelsInImage The number of image pixels summed into each square.
+     */
+    private void sumRow(int[] rowLuminance, int padLeft, int squareSize,
+                        long[] squareSums, int[] squarePixelsInImage) {
+        int lastColumn = Math.min(rowLuminance.length, resolution * squareSize - padLeft);
+        for (int x = 0; x < lastColumn; x++) {
+            int square = (x + padLeft) / squareSize;
+            squareSums[square] += rowLuminance[x];
+            squarePixelsInImage[square]++;
+        }
+    }
+}
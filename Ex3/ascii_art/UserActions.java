@@ -5,10 +5,18 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import exceptions.*;
 import ascii_output.AsciiOutput;
+import ascii_output.ColorAsciiOutput;
 import image.Image;
+import image.ImageUtils;
+import image_char_matching.CharsData;
+import image_char_matching.Ditherer;
+import image_char_matching.FloydSteinbergDitherer;
+import image_char_matching.GlyphMatcher;
+import image_char_matching.OrderedDitherer;
 
 /**
  * Represents user actions that can be performed in the ASCII Art application.
@@ -28,9 +36,33 @@ public class UserActions implements UserInterface {
     private static final String SPACE_ORDER = "space";
     private static final String HTML_FILE = "html";
     private static final String CONSOLE_FILE = "console";
+    private static final String HTML_COLOR_FILE = "html-color";
+    private static final String CONSOLE_COLOR_FILE = "console-color";
     private static final String HTML_OUTPUT = "out.html";
     private static final String FONT = "Courier New";
+    private static final String PARALLEL_ALL = "all";
+    private static final String PARALLEL_OFF = "off";
+    private static final String INVALID_PARALLELISM = "Did not change parallelism due to" +
+            " incorrect format.";
+    private static final String MATCH_BRIGHTNESS = "brightness";
+    private static final String MATCH_SHAPE = "shape";
+    private static final String INVALID_MATCHING = "Did not change matching due to" +
+            " incorrect format.";
+    private static final String DITHER_OFF = "off";
+    private static final String DITHER_FLOYD_STEINBERG = "floyd";
+    private static final String DITHER_ORDERED = "ordered";
+    private static final String INVALID_DITHERING = "Did not change dithering due to" +
+            " incorrect format.";
+    private static final String ASPECT_OFF = "off";
+    private static final String ASPECT_ON = "on";
+    private static final double DEFAULT_CELL_ASPECT = 0.5; // Width over height of a typical character cell
+    private static final String INVALID_ASPECT = "Did not change aspect due to" +
+            " incorrect format.";
     private AsciiArtAlgorithm asciiArtAlgorithm;
+    private ForkJoinPool pool; // Pool for computing brightness, null when running serially
+    private boolean matchByShape; // Whether squares are matched by shape rather than brightness
+    private Ditherer ditherer; // Dithers the brightness before matching, null for no dithering
+    private double cellAspect; // Width over height of a character cell, 0 for square cells over the padded image
     private static final int FACTOR_CHANGE_RES = 2;
     private static final String INVALID_OUTPUT_STREAM = "Did not change output method due to" +
             " incorrect format.";
@@ -122,12 +154,13 @@ public class UserActions implements UserInterface {
      * @param type_of_output The type of output to be used.
      * @return The new output to be used for displaying the ASCII art.
      * @throws InvalidParametersException If the type of output is invalid.
-     * (i.e. not "html" or "console")
+     * (i.e. not "html", "console", "html-color" or "console-color")
      */
     @Override
     public AsciiOutput changeOutput(String type_of_output)
             throws InvalidParametersException {
-        if (!type_of_output.equals(HTML_FILE) && !type_of_output.equals(CONSOLE_FILE)) {
+        if (!type_of_output.equals(HTML_FILE) && !type_of_output.equals(CONSOLE_FILE) &&
+                !type_of_output.equals(HTML_COLOR_FILE) && !type_of_output.equals(CONSOLE_COLOR_FILE)) {
             throw new InvalidParametersException(INVALID_OUTPUT_STREAM);
         }
         AsciiArtOutputFactory asciiArtOutputFactory = new AsciiArtOutputFactory();
@@ -136,6 +169,119 @@ public class UserActions implements UserInterface {
     }
 
 
+    /**
+     * Changes the number of threads used for computing the brightness of the image.
+     * A level of 1 (or "off") runs the algorithm serially, without a pool.
+     *
+     * @param level The parallelism level: a positive number of threads, "all" for one
+     *              thread per core, or "off" to run serially.
+     * @return The new number of threads.
+     * @throws InvalidParametersException If the parallelism level is invalid.
+     */
+    @Override
+    public int changeParallelism(String level) throws InvalidParametersException {
+        int parallelism;
+        if (level.equals(PARALLEL_ALL)) {
+            parallelism = Runtime.getRuntime().availableProcessors();
+        } else if (level.equals(PARALLEL_OFF)) {
+            parallelism = 1;
+        } else {
+            try {
+                parallelism = Integer.parseInt(level);
+            } catch (NumberFormatException e) {
+                throw new InvalidParametersException(INVALID_PARALLELISM);
+            }
+            if (parallelism < 1) {
+                throw new InvalidParametersException(INVALID_PARALLELISM);
+            }
+        }
+        if (pool != null) {
+            pool.shutdown();
+        }
+        pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        return parallelism;
+    }
+
+    /**
+     * Changes how each square of the image is matched to a character.
+     *
+     * @param mode "brightness" to match by average brightness, or "shape" to match by the
+     *             shape of the glyphs.
+     * @return The new matching mode.
+     * @throws InvalidParametersException If the matching mode is invalid.
+     */
+    @Override
+    public String changeMatching(String mode) throws InvalidParametersException {
+        if (!mode.equals(MATCH_BRIGHTNESS) && !mode.equals(MATCH_SHAPE)) {
+            throw new InvalidParametersException(INVALID_MATCHING);
+        }
+        matchByShape = mode.equals(MATCH_SHAPE);
+        return mode;
+    }
+
+    /**
+     * Changes how the brightness of the squares is dithered before it is matched to characters.
+     * Dithering only applies when matching by brightness.
+     *
+     * @param method "floyd" for Floyd-Steinberg error diffusion, "ordered" for ordered
+     *               dithering, or "off" to match the brightness as is.
+     * @return The new dithering method.
+     * @throws InvalidParametersException If the dithering method is invalid.
+     */
+    @Override
+    public String changeDithering(String method) throws InvalidParametersException {
+        switch (method) {
+            case DITHER_OFF:
+                ditherer = null;
+                break;
+            case DITHER_FLOYD_STEINBERG:
+                ditherer = new FloydSteinbergDitherer();
+                break;
+            case DITHER_ORDERED:
+                ditherer = new OrderedDitherer();
+                break;
+            default:
+                throw new InvalidParametersException(INVALID_DITHERING);
+        }
+        return method;
+    }
+
+    /**
+     * Changes the shape of the cells the image is divided into.
+     * With an aspect, the resolution is the number of columns, and the number of rows is chosen
+     * so that the art keeps the shape of the image once drawn with characters of that aspect.
+     * The cells are laid over the image itself, with no padding.
+     *
+     * @param aspect "on" for the aspect of a typical character cell, a positive width over
+     *               height ratio of a character cell, or "off" for square cells over the padded
+     *               image.
+     * @return The new aspect.
+     * @throws InvalidParametersException If the aspect is invalid.
+     */
+    @Override
+    public String changeAspect(String aspect) throws InvalidParametersException {
+        switch (aspect) {
+            case ASPECT_OFF:
+                cellAspect = 0;
+                return aspect;
+            case ASPECT_ON:
+                cellAspect = DEFAULT_CELL_ASPECT;
+                return String.valueOf(cellAspect);
+            default:
+                double ratio;
+                try {
+                    ratio = Double.parseDouble(aspect);
+                } catch (NumberFormatException e) {
+                    throw new InvalidParametersException(INVALID_ASPECT);
+                }
+                if (!(ratio > 0) || Double.isInfinite(ratio)) {
+                    throw new InvalidParametersException(INVALID_ASPECT);
+                }
+                cellAspect = ratio;
+                return String.valueOf(cellAspect);
+        }
+    }
+
     /**
      * Runs the ASCII art algorithm on the given image.
      *
@@ -147,10 +293,52 @@ public class UserActions implements UserInterface {
     @Override
     public char[][] runAsciiAlgorithm(Image image, int resolution, char[] charsSet) {
         // not sure about this part - crate a new instance here (?)
-        asciiArtAlgorithm = new AsciiArtAlgorithm(image, resolution, charsSet);
+        asciiArtAlgorithm = createAlgorithm(image, resolution, charsSet, false);
         return asciiArtAlgorithm.run();
     }
 
+    /**
+     * Runs the ASCII art algorithm on the given image in color mode, and outputs the
+     * characters together with the mean color of each square.
+     *
+     * @param image      The image on which the algorithm needs to be run.
+     * @param resolution The resolution of the ASCII art.
+     * @param charsSet   The characters used for the ASCII art.
+     * @param output     The output to write the colored ASCII art to.
+     */
+    @Override
+    public void runColorAsciiAlgorithm(Image image, int resolution, char[] charsSet, ColorAsciiOutput output) {
+        asciiArtAlgorithm = createAlgorithm(image, resolution, charsSet, true);
+        char[][] chars = asciiArtAlgorithm.run();
+        output.out(chars, asciiArtAlgorithm.getColors());
+    }
+
+    /**
+     * Creates the algorithm for the current matching, dithering and aspect settings.
+     *
+     * @param image      The image on which the algorithm needs to be run.
+     * @param resolution The resolution of the ASCII art, the number of columns with an aspect.
+     * @param charsSet   The characters used for the ASCII art.
+     * @param withColor  Whether the colors of the cells will be asked for.
+     * @return The algorithm.
+     */
+    private AsciiArtAlgorithm createAlgorithm(Image image, int resolution, char[] charsSet, boolean withColor) {
+        AsciiArtAlgorithm.Builder builder;
+        if (cellAspect > 0) {
+            int cols = Math.min(resolution, image.getWidth());
+            builder = new AsciiArtAlgorithm.Builder(image, cols)
+                    .grid(ImageUtils.getGridRows(image, cols, cellAspect));
+        } else {
+            builder = new AsciiArtAlgorithm.Builder(image, resolution);
+        }
+        if (matchByShape) {
+            builder.glyphMatcher(new GlyphMatcher(charsSet));
+        } else {
+            builder.charMatcher(CharsData.getInstance().getMatcher(charsSet)).ditherer(ditherer);
+        }
+        return builder.pool(pool).withColor(withColor).build();
+    }
+
     /**
      * Adds characters based on the provided user input.
      *
@@ -5,6 +5,7 @@ import java.util.HashSet;
 
 import exceptions.*;
 import ascii_output.AsciiOutput;
+import ascii_output.ColorAsciiOutput;
 import image.Image;
 
 
@@ -56,6 +57,46 @@ public interface UserInterface {
      */
     AsciiOutput changeOutput(String type_of_output) throws InvalidParametersException;
 
+    /**
+     * Changes the number of threads used for computing the brightness of the image.
+     *
+     * @param level The parallelism level: a positive number of threads, "all" for one
+     *              thread per core, or "off" to run serially.
+     * @return The new number of threads.
+     * @throws InvalidParametersException If the parallelism level is invalid.
+     */
+    int changeParallelism(String level) throws InvalidParametersException;
+
+    /**
+     * Changes how each square of the image is matched to a character.
+     *
+     * @param mode "brightness" to match by average brightness, or "shape" to match by the
+     *             shape of the glyphs.
+     * @return The new matching mode.
+     * @throws InvalidParametersException If the matching mode is invalid.
+     */
+    String changeMatching(String mode) throws InvalidParametersException;
+
+    /**
+     * Changes how the brightness of the squares is dithered before it is matched to characters.
+     *
+     * @param method "floyd" for Floyd-Steinberg error diffusion, "ordered" for ordered
+     *               dithering, or "off" to match the brightness as is.
+     * @return The new dithering method.
+     * @throws InvalidParametersException If the dithering method is invalid.
+     */
+    String changeDithering(String method) throws InvalidParametersException;
+
+    /**
+     * Changes the shape of the cells the image is divided into.
+     *
+     * @param aspect "on" for the aspect of a typical character cell, a positive width over
+     *               height ratio of a character cell, or "off" for square cells.
+     * @return The new aspect.
+     * @throws InvalidParametersException If the aspect is invalid.
+     */
+    String changeAspect(String aspect) throws InvalidParametersException;
+
     /**
      * Runs the ASCII art algorithm on the given image with the specified resolution and character set.
      *
@@ -66,6 +107,17 @@ public interface UserInterface {
      */
     char[][] runAsciiAlgorithm(Image image, int resolution, char[] charsSet);
 
+    /**
+     * Runs the ASCII art algorithm on the given image in color mode, and outputs the
+     * characters together with the mean color of each square.
+     *
+     * @param image      The image to be used for ASCII art generation.
+     * @param resolution The resolution to be used for ASCII art generation.
+     * @param charsSet   The character set to be used for ASCII art generation.
+     * @param output     The output to write the colored ASCII art to.
+     */
+    void runColorAsciiAlgorithm(Image image, int resolution, char[] charsSet, ColorAsciiOutput output);
+
     /**
      * Adds characters based on the provided user input.
      *
@@ -0,0 +1,90 @@
+package ascii_output;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Logger;
+
+/**
+ * Output a 2D array of chars to the console in color, using ANSI 24-bit color escape sequences.
+ * The layout is the same as ConsoleAsciiOutput. A color sequence is only written when the color
+ * changes, so a run of cells of the same color, even across rows, shares one sequence.
+ * The colors are reset at the end of the frame.
+ */
+public class AnsiColorAsciiOutput implements ColorAsciiOutput {
+    private static final byte[] SET_COLOR = "\u001b[38;2;".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RESET = "\u001b[0m".getBytes(StandardCharsets.US_ASCII);
+    private static final int NO_COLOR = -1;
+    private static final int RGB_MASK = 0xFFFFFF;
+    private static final int CHANNEL_MASK = 0xFF;
+    private static final int RED_SHIFT = 16;
+    private static final int GREEN_SHIFT = 8;
+
+    private final ByteRowBuffer frame = new ByteRowBuffer(Charset.defaultCharset()); // The encoded frame
+    private final OutputStream stream; // The stream the frames are written to
+
+    /**
+     * Creates an output that writes to the console.
+     */
+    public AnsiColorAsciiOutput() {
+        this(System.out);
+    }
+
+    /**
+     * Creates an output that writes its frames to a stream instead of the console, in the same
+     * layout. The stream is flushed after each frame, but not closed.
+     *
+     * @param stream The stream to write.
+     */
+    public AnsiColorAsciiOutput(OutputStream stream) {
+        this.stream = stream;
+    }
+
+    @Override
+    public void out(char[][] chars, int[] colors) {
+        frame.clear();
+        int currentColor = NO_COLOR;
+        for (int y = 0; y < chars.length; y++) {
+            char[] row = chars[y];
+            for (int x = 0; x < row.length; x++) {
+                if (colors != null) {
+                    int color = colors[y * row.length + x] & RGB_MASK;
+                    if (color != currentColor) {
+                        appendColor(color);
+                        currentColor = color;
+                    }
+                }
+                frame.append(row[x]);
+                frame.append(' ');
+            }
+            frame.appendLineSeparator();
+        }
+        if (currentColor != NO_COLOR) {
+            frame.append(RESET);
+        }
+        try {
+            frame.writeTo(stream);
+            stream.flush();
+        } catch (IOException e) {
+            // System.out never throws, so only other streams get here
+            Logger.getGlobal().severe("Failed to write to the output stream");
+        }
+        frame.clear();
+    }
+
+    /**
+     * Appends the escape sequence that sets the foreground color.
+     *
+     * @param color The packed RGB color.
+     */
+    private void appendColor(int color) {
+        frame.append(SET_COLOR);
+        frame.appendDecimal(color >> RED_SHIFT);
+        frame.append(';');
+        frame.appendDecimal((color >> GREEN_SHIFT) & CHANNEL_MASK);
+        frame.append(';');
+        frame.appendDecimal(color & CHANNEL_MASK);
+        frame.append('m');
+    }
+}
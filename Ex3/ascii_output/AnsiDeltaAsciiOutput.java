@@ -0,0 +1,101 @@
+package ascii_output;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Output a sequence of 2D arrays of chars to the console as an animation.
+ * The first frame clears the screen and is drawn whole, in the layout of ConsoleAsciiOutput.
+ * Every following frame of the same size only redraws the chars that changed: each run of
+ * changed chars in a row is preceded by an ANSI cursor positioning sequence. The cursor is
+ * left below the frame, and each frame is written and flushed at once.
+ */
+public class AnsiDeltaAsciiOutput implements AsciiOutput {
+    private static final byte[] ESCAPE = "\u001b[".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CLEAR_SCREEN = "\u001b[H\u001b[2J".getBytes(StandardCharsets.US_ASCII);
+    private static final int CELL_WIDTH = 2; // Each char is followed by a space
+
+    private final ByteRowBuffer frame = new ByteRowBuffer(Charset.defaultCharset()); // The encoded frame
+    private char[][] previous; // The chars currently on the screen, null before the first frame
+    private long changedChars; // Number of chars written since the first frame
+
+    @Override
+    public void out(char[][] chars) {
+        frame.clear();
+        int rows = chars.length;
+        int cols = rows == 0 ? 0 : chars[0].length;
+        if (previous == null || previous.length != rows || (rows > 0 && previous[0].length != cols)) {
+            frame.append(CLEAR_SCREEN);
+            for (char[] row : chars) {
+                for (char c : row) {
+                    frame.append(c);
+                    frame.append(' ');
+                }
+                frame.appendLineSeparator();
+            }
+            previous = new char[rows][cols];
+        } else {
+            for (int y = 0; y < rows; y++) {
+                appendChangedRuns(y, chars[y], previous[y]);
+            }
+            appendCursorPosition(rows, 0);
+        }
+        for (int y = 0; y < rows; y++) {
+            System.arraycopy(chars[y], 0, previous[y], 0, cols);
+        }
+        try {
+            frame.writeTo(System.out);
+        } catch (IOException e) {
+            // System.out never throws, it only sets its error flag
+        }
+        System.out.flush();
+    }
+
+    /**
+     * Returns the number of chars redrawn by all frames after the first.
+     *
+     * @return The number of changed chars written.
+     */
+    public long getChangedChars() {
+        return changedChars;
+    }
+
+    /**
+     * Appends the runs of chars of a row that differ from the screen.
+     *
+     * @param y        The row.
+     * @param row      The new chars of the row.
+     * @param onScreen The chars of the row currently on the screen.
+     */
+    private void appendChangedRuns(int y, char[] row, char[] onScreen) {
+        int x = 0;
+        while (x < row.length) {
+            if (row[x] == onScreen[x]) {
+                x++;
+                continue;
+            }
+            appendCursorPosition(y, x * CELL_WIDTH);
+            do {
+                frame.append(row[x]);
+                frame.append(' ');
+                changedChars++;
+                x++;
+            } while (x < row.length && row[x] != onScreen[x]);
+        }
+    }
+
+    /**
+     * Appends the sequence that moves the cursor, relative to the top left of the frame.
+     *
+     * @param row The row, from 0.
+     * @param col The column, from 0.
+     */
+    private void appendCursorPosition(int row, int col) {
+        frame.append(ESCAPE);
+        frame.appendDecimal(row + 1);
+        frame.append(';');
+        frame.appendDecimal(col + 1);
+        frame.append('H');
+    }
+}
@@ -0,0 +1,176 @@
+package ascii_output;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A growable buffer of encoded bytes, reused from row to row and frame to frame, so the
+ * outputs encode their chars without creating a String per char.
+ * ASCII chars are written as single bytes when the charset encodes them that way; any
+ * other char is encoded with the charset.
+ */
+final class ByteRowBuffer {
+    private static final int INITIAL_CAPACITY = 8192;
+    private static final int ASCII_LIMIT = 0x80;
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ESCAPED_LT = "&lt;".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ESCAPED_GT = "&gt;".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ESCAPED_AMP = "&amp;".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final int RGB_HEX_DIGITS = 6;
+    private static final int HEX_DIGIT_BITS = 4;
+    private static final int HEX_DIGIT_MASK = 0xF;
+    private static final int DECIMAL_BASE = 10;
+
+    private final Charset charset; // The charset of the chars that are not written as one byte
+    private final boolean asciiCompatible; // Whether the charset encodes ASCII as single bytes
+    private byte[] bytes = new byte[INITIAL_CAPACITY]; // The encoded bytes, grown when full
+    private int size; // The number of bytes in the buffer
+
+    /**
+     * Creates an empty buffer.
+     *
+     * @param charset The charset the chars are encoded with.
+     */
+    ByteRowBuffer(Charset charset) {
+        this.charset = charset;
+        byte[] ascii = new byte[ASCII_LIMIT];
+        for (int i = 0; i < ASCII_LIMIT; i++) {
+            ascii[i] = (byte) i;
+        }
+        asciiCompatible = Arrays.equals(new String(ascii, StandardCharsets.US_ASCII).getBytes(charset), ascii);
+    }
+
+    /**
+     * Appends an encoded char.
+     *
+     * @param c The char.
+     */
+    void append(char c) {
+        if (c < ASCII_LIMIT && asciiCompatible) {
+            ensureCapacity(1);
+            bytes[size++] = (byte) c;
+        } else {
+            append(String.valueOf(c).getBytes(charset));
+        }
+    }
+
+    /**
+     * Appends a char, escaping the chars that have a meaning in HTML.
+     *
+     * @param c The char.
+     */
+    void appendHtmlEscaped(char c) {
+        switch (c) {
+            case '<':
+                append(ESCAPED_LT);
+                break;
+            case '>':
+                append(ESCAPED_GT);
+                break;
+            case '&':
+                append(ESCAPED_AMP);
+                break;
+            default:
+                append(c);
+        }
+    }
+
+    /**
+     * Appends bytes that are already encoded.
+     *
+     * @param encoded The bytes.
+     */
+    void append(byte[] encoded) {
+        ensureCapacity(encoded.length);
+        System.arraycopy(encoded, 0, bytes, size, encoded.length);
+        size += encoded.length;
+    }
+
+    /**
+     * Appends a packed RGB color as six lowercase hex digits, without a leading '#'.
+     *
+     * @param rgb The packed RGB color.
+     */
+    void appendHexColor(int rgb) {
+        ensureCapacity(RGB_HEX_DIGITS);
+        for (int shift = (RGB_HEX_DIGITS - 1) * HEX_DIGIT_BITS; shift >= 0; shift -= HEX_DIGIT_BITS) {
+            bytes[size++] = HEX_DIGITS[(rgb >> shift) & HEX_DIGIT_MASK];
+        }
+    }
+
+    /**
+     * Appends a non-negative number in decimal.
+     *
+     * @param number The number.
+     */
+    void appendDecimal(int number) {
+        int digits = 1;
+        for (int rest = number / DECIMAL_BASE; rest > 0; rest /= DECIMAL_BASE) {
+            digits++;
+        }
+        ensureCapacity(digits);
+        for (int i = size + digits - 1; i >= size; i--) {
+            bytes[i] = (byte) ('0' + number % DECIMAL_BASE);
+            number /= DECIMAL_BASE;
+        }
+        size += digits;
+    }
+
+    /**
+     * Appends the line separator of the platform.
+     */
+    void appendLineSeparator() {
+        append(LINE_SEPARATOR);
+    }
+
+    /**
+     * Returns the number of bytes in the buffer.
+     *
+     * @return The size of the buffer.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Empties the buffer, keeping its capacity.
+     */
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * Returns a ByteBuffer over the bytes of the buffer, valid until the next append.
+     *
+     * @return The bytes as a ByteBuffer.
+     */
+    ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(bytes, 0, size);
+    }
+
+    /**
+     * Writes the bytes of the buffer to a stream in one call.
+     *
+     * @param out The stream.
+     * @throws IOException If the write fails.
+     */
+    void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, size);
+    }
+
+    /**
+     * Grows the buffer if it cannot hold the given number of additional bytes.
+     *
+     * @param extra The number of bytes about to be appended.
+     */
+    private void ensureCapacity(int extra) {
+        if (size + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package ascii_output;
+
+/**
+ * An object implementing this interface can output a 2D array of chars in which
+ * every char has its own color.
+ */
+public interface ColorAsciiOutput extends AsciiOutput {
+    /**
+     * Output the specified 2D array of chars, each in the color at the same position.
+     *
+     * @param chars  the chars to output
+     * @param colors the packed RGB (0xRRGGBB) color of each char, row-major, or null for no color
+     */
+    void out(char[][] chars, int[] colors);
+
+    /**
+     * Output the specified 2D array of chars without color.
+     */
+    @Override
+    default void out(char[][] chars) {
+        out(chars, null);
+    }
+}
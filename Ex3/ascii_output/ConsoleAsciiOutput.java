@@ -1,19 +1,61 @@
 package ascii_output;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.logging.Logger;
+
 /**
  * Output a 2D array of chars to the console.
+ * The chars of a frame are encoded into one reusable byte buffer, and written to the
+ * console in a single write and flush when the frame ends.
  *
  * @author Dan Nirel
  */
-public class ConsoleAsciiOutput implements AsciiOutput {
+public class ConsoleAsciiOutput implements RowAsciiOutput {
+    private final ByteRowBuffer frame = new ByteRowBuffer(Charset.defaultCharset()); // The encoded frame
+    private final OutputStream stream; // The stream the frames are written to
+
+    /**
+     * Creates an output that writes to the console.
+     */
+    public ConsoleAsciiOutput() {
+        this(System.out);
+    }
+
+    /**
+     * Creates an output that writes its frames to a stream instead of the console, in the same
+     * layout. The stream is flushed after each frame, but not closed.
+     *
+     * @param stream The stream to write.
+     */
+    public ConsoleAsciiOutput(OutputStream stream) {
+        this.stream = stream;
+    }
+
+    @Override
+    public void begin(int rows, int cols) {
+        frame.clear();
+    }
+
     @Override
-    public void out(char[][] chars) {
-        for (int y = 0; y < chars.length; y++) {
-            for (int x = 0; x < chars[y].length; x++) {
-                System.out.print(chars[y][x] + " ");
-            }
-            System.out.println();
+    public void outRow(char[] row) {
+        for (int x = 0; x < row.length; x++) {
+            frame.append(row[x]);
+            frame.append(' ');
         }
+        frame.appendLineSeparator();
     }
-}
 
+    @Override
+    public void end() {
+        try {
+            frame.writeTo(stream);
+            stream.flush();
+        } catch (IOException e) {
+            // System.out never throws, so only other streams get here
+            Logger.getGlobal().severe("Failed to write to the output stream");
+        }
+        frame.clear();
+    }
+}
@@ -1,71 +1,200 @@
 package ascii_output;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.logging.Logger;
 
 /**
  * Output a 2D array of chars to an HTML file viewable in a web browser.
+ * The escaped rows are encoded into a reusable byte buffer and written to the file through a
+ * FileChannel, many rows per write.
+ * The frames can also be written to a stream instead of a file, for example to answer a request.
  *
  * @author Dan Nirel
  */
-public class HtmlAsciiOutput implements AsciiOutput {
+public class HtmlAsciiOutput implements RowAsciiOutput {
     private static final double BASE_LINE_SPACING = 0.8;
     private static final double BASE_FONT_SIZE = 150.0;
+    private static final int WRITE_THRESHOLD = 1 << 16; // Buffered bytes that trigger a write
+    private static final String FOOTER =
+            "</p>\n" +
+                    "</body>\n" +
+                    "</html>\n";
+    private static final byte[] SPAN_START = "<span style=\"color:#".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SPAN_START_END = "\">".getBytes(StandardCharsets.US_ASCII);
+    private static final int RGB_MASK = 0xFFFFFF;
+    private static final byte[] SPAN_END = "</span>".getBytes(StandardCharsets.US_ASCII);
 
     private final String fontName;
     private final String filename;
+    private final OutputStream stream; // Stream the frames are written to, null to write the file
+    private final Charset charset = Charset.defaultCharset();
+    private final ByteRowBuffer pending = new ByteRowBuffer(charset); // Encoded rows not yet written
+    private FileChannel channel; // Channel of the current frame, null between frames
+    private boolean inFrame; // Whether a frame was begun, has not ended and has not failed
 
     public HtmlAsciiOutput(String filename, String fontName) {
         this.fontName = fontName;
         this.filename = filename;
+        this.stream = null;
+    }
+
+    /**
+     * Creates an HTML output that writes its frames to a stream. Each frame is written in
+     * writes of many rows and the stream is flushed when the frame ends, but not closed.
+     *
+     * @param stream   The stream to write.
+     * @param fontName The font of the chars.
+     */
+    public HtmlAsciiOutput(OutputStream stream, String fontName) {
+        this.fontName = fontName;
+        this.filename = null;
+        this.stream = stream;
+    }
+
+    @Override
+    public void begin(int rows, int cols) {
+        byte[] header = String.format(
+                "<!DOCTYPE html>\n" +
+                        "<html>\n" +
+                        "<body style=\"" +
+                        "\tCOLOR:#000000;" +
+                        "\tTEXT-ALIGN:center;" +
+                        "\tFONT-SIZE:1px;\">\n" +
+                        "<p style=\"" +
+                        "\twhite-space:pre;" +
+                        "\tFONT-FAMILY:%s;" +
+                        "\tFONT-SIZE:%frem;" +
+                        "\tLETTER-SPACING:0.15em;" +
+                        "\tLINE-HEIGHT:%fem;\">\n",
+                fontName, BASE_FONT_SIZE / cols, BASE_LINE_SPACING).getBytes(charset);
+        pending.clear();
+        inFrame = true;
+        if (stream != null) {
+            pending.append(header);
+            return;
+        }
+        try {
+            channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            pending.append(header);
+        } catch (IOException | RuntimeException e) {
+            fail();
+        }
+    }
+
+    @Override
+    public void outRow(char[] row) {
+        if (!inFrame) {
+            return;
+        }
+        for (int x = 0; x < row.length; x++) {
+            pending.appendHtmlEscaped(row[x]);
+        }
+        pending.appendLineSeparator();
+        if (pending.size() >= WRITE_THRESHOLD) {
+            writeRows();
+        }
+    }
+
+    /**
+     * Output the next row of chars, each in its own color. Adjacent chars of the same
+     * color are merged into one span.
+     *
+     * @param row    the chars of the row
+     * @param colors the packed RGB colors, row-major
+     * @param offset the index in colors of the color of the first char of the row
+     */
+    void outColorRow(char[] row, int[] colors, int offset) {
+        if (!inFrame) {
+            return;
+        }
+        int x = 0;
+        while (x < row.length) {
+            int color = colors[offset + x] & RGB_MASK;
+            pending.append(SPAN_START);
+            pending.appendHexColor(color);
+            pending.append(SPAN_START_END);
+            do {
+                pending.appendHtmlEscaped(row[x]);
+                x++;
+            } while (x < row.length && (colors[offset + x] & RGB_MASK) == color);
+            pending.append(SPAN_END);
+        }
+        pending.appendLineSeparator();
+        if (pending.size() >= WRITE_THRESHOLD) {
+            writeRows();
+        }
     }
 
     @Override
-    public void out(char[][] chars) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
-            writer.write(String.format(
-                    "<!DOCTYPE html>\n" +
-                            "<html>\n" +
-                            "<body style=\"" +
-                            "\tCOLOR:#000000;" +
-                            "\tTEXT-ALIGN:center;" +
-                            "\tFONT-SIZE:1px;\">\n" +
-                            "<p style=\"" +
-                            "\twhite-space:pre;" +
-                            "\tFONT-FAMILY:%s;" +
-                            "\tFONT-SIZE:%frem;" +
-                            "\tLETTER-SPACING:0.15em;" +
-                            "\tLINE-HEIGHT:%fem;\">\n",
-                    fontName, BASE_FONT_SIZE / chars[0].length, BASE_LINE_SPACING));
+    public void end() {
+        if (!inFrame) {
+            return;
+        }
+        pending.append(FOOTER.getBytes(charset));
+        writeRows();
+        if (stream != null) {
+            try {
+                stream.flush();
+            } catch (IOException e) {
+                fail();
+            }
+            inFrame = false;
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            fail();
+        }
+        channel = null;
+        inFrame = false;
+    }
 
-            for (int y = 0; y < chars.length; y++) {
-                for (int x = 0; x < chars[y].length; x++) {
-                    String htmlRep;
-                    switch (chars[y][x]) {
-                        case '<':
-                            htmlRep = "&lt;";
-                            break;
-                        case '>':
-                            htmlRep = "&gt;";
-                            break;
-                        case '&':
-                            htmlRep = "&amp;";
-                            break;
-                        default:
-                            htmlRep = String.valueOf(chars[y][x]);
-                    }
-                    writer.write(htmlRep);
+    /**
+     * Writes the buffered rows to the file or stream and empties the buffer.
+     */
+    private void writeRows() {
+        if (!inFrame) {
+            return;
+        }
+        try {
+            if (stream != null) {
+                pending.writeTo(stream);
+            } else {
+                ByteBuffer bytes = pending.asByteBuffer();
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
                 }
-                writer.newLine();
             }
-            writer.write(
-                    "</p>\n" +
-                            "</body>\n" +
-                            "</html>\n");
+            pending.clear();
         } catch (IOException e) {
-            Logger.getGlobal().severe(String.format("Failed to write to \"%s\"", filename));
+            fail();
+        }
+    }
+
+    /**
+     * Logs a failed write and drops the rest of the frame.
+     */
+    private void fail() {
+        Logger.getGlobal().severe(stream != null ? "Failed to write to the output stream" :
+                String.format("Failed to write to \"%s\"", filename));
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // The write already failed and was logged
+            }
         }
+        channel = null;
+        inFrame = false;
+        pending.clear();
     }
 }
@@ -0,0 +1,43 @@
+package ascii_output;
+
+import java.io.OutputStream;
+
+/**
+ * Output a 2D array of chars to an HTML file in color, wrapping the chars in spans.
+ * Adjacent chars of the same color in a row share one span, so a uniform area costs one
+ * tag pair per row instead of one per char.
+ */
+public class HtmlColorAsciiOutput extends HtmlAsciiOutput implements ColorAsciiOutput {
+    public HtmlColorAsciiOutput(String filename, String fontName) {
+        super(filename, fontName);
+    }
+
+    /**
+     * Creates a color HTML output that writes its frames to a stream.
+     *
+     * @param stream   The stream to write.
+     * @param fontName The font of the chars.
+     */
+    public HtmlColorAsciiOutput(OutputStream stream, String fontName) {
+        super(stream, fontName);
+    }
+
+    @Override
+    public void out(char[][] chars) {
+        out(chars, null);
+    }
+
+    @Override
+    public void out(char[][] chars, int[] colors) {
+        int cols = chars.length == 0 ? 0 : chars[0].length;
+        begin(chars.length, cols);
+        for (int y = 0; y < chars.length; y++) {
+            if (colors == null) {
+                outRow(chars[y]);
+            } else {
+                outColorRow(chars[y], colors, y * cols);
+            }
+        }
+        end();
+    }
+}
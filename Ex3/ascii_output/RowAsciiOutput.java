@@ -0,0 +1,40 @@
+package ascii_output;
+
+/**
+ * An object implementing this interface can output ASCII art one row at a time,
+ * so the whole 2D array of chars never has to be held in memory.
+ * A frame is written by calling begin once, outRow once per row, and end once.
+ */
+public interface RowAsciiOutput extends AsciiOutput {
+    /**
+     * Start a new frame of ASCII art.
+     *
+     * @param rows the number of rows that will follow
+     * @param cols the number of chars in each row
+     */
+    void begin(int rows, int cols);
+
+    /**
+     * Output the next row of chars. The array may be reused by the caller after the call.
+     *
+     * @param row the chars of the row
+     */
+    void outRow(char[] row);
+
+    /**
+     * Finish the current frame.
+     */
+    void end();
+
+    /**
+     * Output the specified 2D array of chars, row by row.
+     */
+    @Override
+    default void out(char[][] chars) {
+        begin(chars.length, chars.length == 0 ? 0 : chars[0].length);
+        for (char[] row : chars) {
+            outRow(row);
+        }
+        end();
+    }
+}
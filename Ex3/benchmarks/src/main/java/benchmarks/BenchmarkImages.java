@@ -0,0 +1,87 @@
+package benchmarks;
+
+import image.Image;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Synthetic inputs shared by the benchmarks.
+ * The images are square and deterministic, so every run measures the same work.
+ */
+final class BenchmarkImages {
+    private static final int FIRST_PRINTABLE = ' ';
+    private static final int LAST_PRINTABLE = '~';
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+
+    private BenchmarkImages() {
+    }
+
+    /**
+     * Creates a square image of a diagonal gradient with noise, so the squares of every
+     * resolution differ in brightness.
+     *
+     * @param size The width and height of the image.
+     * @return The packed ARGB pixels of the image, row-major.
+     */
+    static int[] createPixels(int size) {
+        int[] pixels = new int[size * size];
+        long state = SEED;
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                state ^= state << 13;
+                state ^= state >>> 7;
+                state ^= state << 17;
+                int noise = (int) (state & 0x3F);
+                int gray = Math.min(255, (i + j) * 192 / (2 * size) + noise);
+                pixels[i * size + j] = 0xFF000000 | gray << 16 | (255 - gray) << 8 | (gray / 2);
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Creates a square image, see {@link #createPixels(int)}.
+     *
+     * @param size The width and height of the image.
+     * @return The image.
+     */
+    static Image createImage(int size) {
+        return new Image(createPixels(size), size, size);
+    }
+
+    /**
+     * Writes a square image to a temporary PNG file, deleted when the JVM exits.
+     *
+     * @param size The width and height of the image.
+     * @return The file.
+     * @throws IOException If the file cannot be written.
+     */
+    static File createImageFile(int size) throws IOException {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, size, size, createPixels(size), 0, size);
+        File file = File.createTempFile("benchmark-" + size + "-", ".png");
+        file.deleteOnExit();
+        ImageIO.write(image, "png", file);
+        return file;
+    }
+
+    /**
+     * Returns the first printable ASCII characters, starting from the space.
+     *
+     * @param size The number of characters, between 1 and 95.
+     * @return The charset.
+     */
+    static char[] createCharset(int size) {
+        if (size < 1 || size > LAST_PRINTABLE - FIRST_PRINTABLE + 1) {
+            throw new IllegalArgumentException("Charset size must be between 1 and 95: " + size);
+        }
+        char[] charset = new char[size];
+        for (int i = 0; i < size; i++) {
+            charset[i] = (char) (FIRST_PRINTABLE + i);
+        }
+        return charset;
+    }
+}
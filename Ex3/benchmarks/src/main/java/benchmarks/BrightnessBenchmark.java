@@ -0,0 +1,60 @@
+package benchmarks;
+
+import image.BrightnessTable;
+import image.Image;
+import image.ImageUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Computing the brightness of every square, both from the squares of the padded image
+ * and from the brightness table, and building the table with and without color.
+ */
+@State(Scope.Benchmark)
+public class BrightnessBenchmark {
+    @Param({"1024", "4096"})
+    public int imageSize;
+
+    @Param({"2", "16", "128", "1024"})
+    public int resolution;
+
+    private Image image; // The image before padding
+    private Image[][] squares; // The squares of the padded image
+    private BrightnessTable table; // The brightness table of the image
+
+    @Setup
+    public void setUp() {
+        image = BenchmarkImages.createImage(imageSize);
+        squares = ImageUtils.imageAfterResolution(resolution, ImageUtils.imagePadding(image));
+        table = new BrightnessTable(image);
+    }
+
+    @Benchmark
+    public double[][] squares() {
+        double[][] brightness = new double[squares.length][squares.length];
+        for (int i = 0; i < squares.length; i++) {
+            for (int j = 0; j < squares[i].length; j++) {
+                brightness[i][j] = ImageUtils.getImageBrightness(squares[i][j]);
+            }
+        }
+        return brightness;
+    }
+
+    @Benchmark
+    public BrightnessTable buildTable() {
+        return new BrightnessTable(image);
+    }
+
+    @Benchmark
+    public BrightnessTable buildTableWithColor() {
+        return new BrightnessTable(image, null, true);
+    }
+
+    @Benchmark
+    public double[][] fromTable() {
+        return table.getBrightnessAtResolution(resolution);
+    }
+}
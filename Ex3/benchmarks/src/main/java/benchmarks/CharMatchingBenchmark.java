@@ -0,0 +1,52 @@
+package benchmarks;
+
+import image_char_matching.SubImgCharMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Matching a grid of brightness values to characters, and building the matcher itself.
+ */
+@State(Scope.Benchmark)
+public class CharMatchingBenchmark {
+    @Param({"1", "2", "16", "95"})
+    public int charsetSize;
+
+    @Param({"2", "16", "128", "1024"})
+    public int resolution;
+
+    private char[] charset; // The characters to match
+    private SubImgCharMatcher matcher; // Matcher of the charset
+    private double[][] brightness; // The brightness of every square
+
+    @Setup
+    public void setUp() {
+        charset = BenchmarkImages.createCharset(charsetSize);
+        matcher = new SubImgCharMatcher(charset);
+        brightness = new double[resolution][resolution];
+        for (int i = 0; i < resolution; i++) {
+            for (int j = 0; j < resolution; j++) {
+                brightness[i][j] = (double) (i * resolution + j) / (resolution * resolution);
+            }
+        }
+    }
+
+    @Benchmark
+    public char[][] match() {
+        char[][] chars = new char[resolution][resolution];
+        for (int i = 0; i < resolution; i++) {
+            for (int j = 0; j < resolution; j++) {
+                chars[i][j] = matcher.getCharByImageBrightness(brightness[i][j]);
+            }
+        }
+        return chars;
+    }
+
+    @Benchmark
+    public SubImgCharMatcher buildMatcher() {
+        return new SubImgCharMatcher(charset);
+    }
+}
@@ -0,0 +1,32 @@
+package benchmarks;
+
+import image.Image;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Decoding an image file into an Image.
+ */
+@State(Scope.Benchmark)
+public class DecodeBenchmark {
+    @Param({"256", "1024", "4096"})
+    public int imageSize;
+
+    private File file; // A PNG image of imageSize x imageSize pixels
+
+    @Setup
+    public void setUp() throws IOException {
+        file = BenchmarkImages.createImageFile(imageSize);
+    }
+
+    @Benchmark
+    public Image decode() throws IOException {
+        return new Image(file.getPath());
+    }
+}
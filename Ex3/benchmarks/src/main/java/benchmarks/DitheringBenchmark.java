@@ -0,0 +1,65 @@
+package benchmarks;
+
+import image_char_matching.Ditherer;
+import image_char_matching.FloydSteinbergDitherer;
+import image_char_matching.OrderedDitherer;
+import image_char_matching.SubImgCharMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Dithering a grid of brightness values, serially and pipelined across a pool.
+ * Every invocation dithers a fresh copy of the same grid.
+ */
+@State(Scope.Benchmark)
+public class DitheringBenchmark {
+    @Param({"256", "1024"})
+    public int resolution;
+
+    @Param({"floyd", "ordered"})
+    public String method;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private double[][] brightness; // The grid before dithering
+    private SubImgCharMatcher matcher; // Matcher of all printable ASCII chars
+    private Ditherer ditherer; // The ditherer of the method
+    private ForkJoinPool pool; // The pool, null for a single thread
+
+    @Setup
+    public void setUp() {
+        matcher = new SubImgCharMatcher(BenchmarkImages.createCharset(95));
+        ditherer = method.equals("floyd") ? new FloydSteinbergDitherer() : new OrderedDitherer();
+        pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        brightness = new double[resolution][resolution];
+        for (int i = 0; i < resolution; i++) {
+            for (int j = 0; j < resolution; j++) {
+                brightness[i][j] = (double) (i * resolution + j) / (resolution * resolution);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public double[][] dither() {
+        double[][] grid = new double[resolution][];
+        for (int i = 0; i < resolution; i++) {
+            grid[i] = brightness[i].clone();
+        }
+        ditherer.dither(grid, matcher, pool);
+        return grid;
+    }
+}
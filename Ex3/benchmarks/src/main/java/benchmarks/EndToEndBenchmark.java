@@ -0,0 +1,50 @@
+package benchmarks;
+
+import ascii_art.AsciiArtAlgorithm;
+import image.Image;
+import image.ResolutionImageData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The whole AsciiArtAlgorithm run on a decoded image.
+ * The byte budget of the processed image cache is set to zero, so every invocation
+ * computes the brightness again instead of reading it from the cache.
+ */
+@State(Scope.Benchmark)
+public class EndToEndBenchmark {
+    @Param({"1024", "4096"})
+    public int imageSize;
+
+    @Param({"2", "16", "128", "1024"})
+    public int resolution;
+
+    @Param({"2", "16", "95"})
+    public int charsetSize;
+
+    private Image image; // The input image
+    private char[] charset; // The characters of the output
+    private long originalBudget; // The byte budget of the cache, restored after the benchmark
+
+    @Setup
+    public void setUp() {
+        image = BenchmarkImages.createImage(imageSize);
+        charset = BenchmarkImages.createCharset(charsetSize);
+        originalBudget = ResolutionImageData.getInstance().getByteBudget();
+        ResolutionImageData.getInstance().setByteBudget(0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        ResolutionImageData.getInstance().setByteBudget(originalBudget);
+    }
+
+    @Benchmark
+    public char[][] run() {
+        return new AsciiArtAlgorithm(image, resolution, charset).run();
+    }
+}
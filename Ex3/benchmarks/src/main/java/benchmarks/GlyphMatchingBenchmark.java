@@ -0,0 +1,43 @@
+package benchmarks;
+
+import ascii_art.AsciiArtAlgorithm;
+import image.Image;
+import image.ResolutionImageData;
+import image_char_matching.GlyphMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The AsciiArtAlgorithm matching squares by the shape of the glyphs, for several widths of
+ * the brightness pre-filter. The summed-area table is cached after the first invocation,
+ * so this measures sampling the squares and matching them.
+ */
+@State(Scope.Benchmark)
+public class GlyphMatchingBenchmark {
+    @Param({"4096"})
+    public int imageSize;
+
+    @Param({"64", "256"})
+    public int resolution;
+
+    @Param({"0", "0.1", "0.2"})
+    public double window;
+
+    private Image image; // The input image
+    private GlyphMatcher matcher; // Matcher of the glyphs of all printable ASCII chars
+
+    @Setup
+    public void setUp() {
+        image = BenchmarkImages.createImage(imageSize);
+        matcher = new GlyphMatcher(BenchmarkImages.createCharset(95), window);
+        ResolutionImageData.getInstance().getBrightnessTable(image, null);
+    }
+
+    @Benchmark
+    public char[][] matchShape() {
+        return new AsciiArtAlgorithm.Builder(image, resolution).glyphMatcher(matcher).build().run();
+    }
+}
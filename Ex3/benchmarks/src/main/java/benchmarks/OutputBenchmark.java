@@ -0,0 +1,62 @@
+package benchmarks;
+
+import ascii_output.ConsoleAsciiOutput;
+import ascii_output.HtmlAsciiOutput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Writing a frame of characters to the console and to an HTML file.
+ * The console is redirected to a stream that discards its bytes, so only the
+ * formatting and encoding is measured.
+ */
+@State(Scope.Benchmark)
+public class OutputBenchmark {
+    private static final String FONT = "Courier New";
+
+    @Param({"2", "16", "128", "1024"})
+    public int resolution;
+
+    private char[][] frame; // The frame to write
+    private File htmlFile; // The HTML file written by the benchmark
+    private PrintStream originalOut; // The console, restored after the benchmark
+
+    @Setup
+    public void setUp() throws IOException {
+        char[] charset = BenchmarkImages.createCharset(95);
+        frame = new char[resolution][resolution];
+        for (int i = 0; i < resolution; i++) {
+            for (int j = 0; j < resolution; j++) {
+                frame[i][j] = charset[(i * 31 + j) % charset.length];
+            }
+        }
+        htmlFile = File.createTempFile("benchmark-", ".html");
+        htmlFile.deleteOnExit();
+        originalOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(originalOut);
+    }
+
+    @Benchmark
+    public void console() {
+        new ConsoleAsciiOutput().out(frame);
+    }
+
+    @Benchmark
+    public void html() {
+        new HtmlAsciiOutput(htmlFile.getPath(), FONT).out(frame);
+    }
+}
@@ -0,0 +1,48 @@
+package benchmarks;
+
+import image.Image;
+import image.ImageUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Padding an image to power of two dimensions. The sizes are not powers of two, so
+ * every image is actually padded.
+ */
+@State(Scope.Benchmark)
+public class PaddingBenchmark {
+    @Param({"300", "1000", "3000"})
+    public int imageSize;
+
+    private Image image; // The image to pad
+
+    @Setup
+    public void setUp() {
+        image = BenchmarkImages.createImage(imageSize);
+    }
+
+    @Benchmark
+    public Image pad() {
+        return ImageUtils.imagePadding(image);
+    }
+
+    /**
+     * Pads the image and reads every pixel of the padded image, which is what the
+     * tile based brightness computation does with it.
+     */
+    @Benchmark
+    public void padAndRead(Blackhole blackhole) {
+        Image padded = ImageUtils.imagePadding(image);
+        int sum = 0;
+        for (int i = 0; i < padded.getHeight(); i++) {
+            for (int j = 0; j < padded.getWidth(); j++) {
+                sum += padded.getRGB(i, j);
+            }
+        }
+        blackhole.consume(sum);
+    }
+}
@@ -0,0 +1,33 @@
+package benchmarks;
+
+import image.Image;
+import image.ImageUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Splitting a padded image into resolution x resolution square views.
+ */
+@State(Scope.Benchmark)
+public class TilingBenchmark {
+    @Param({"1024", "4096"})
+    public int imageSize;
+
+    @Param({"2", "16", "128", "1024"})
+    public int resolution;
+
+    private Image padded; // The padded image to split
+
+    @Setup
+    public void setUp() {
+        padded = ImageUtils.imagePadding(BenchmarkImages.createImage(imageSize));
+    }
+
+    @Benchmark
+    public Image[][] tile() {
+        return ImageUtils.imageAfterResolution(resolution, padded);
+    }
+}
@@ -0,0 +1,58 @@
+package image;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A fork/join task that splits a range of rows (or columns) into bands and runs
+ * an action on every band. Bands never overlap, so the result of the whole task
+ * does not depend on how the range was split or on the order the bands ran in.
+ */
+class BandTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L; // RecursiveAction is Serializable
+    private final int from; // First index of the range (inclusive)
+    private final int to; // Last index of the range (exclusive)
+    private final int bandSize; // Largest band that is run without splitting
+    private final BandAction action; // The action to run on each band
+
+    /**
+     * An action on a band of indices.
+     */
+    interface BandAction {
+        /**
+         * Runs the action on the indices in [from, to).
+         *
+         * @param from First index of the band (inclusive).
+         * @param to   Last index of the band (exclusive).
+         */
+        void run(int from, int to);
+    }
+
+    /**
+     * Constructs a task over the indices in [from, to).
+     *
+     * @param from     First index of the range (inclusive).
+     * @param to       Last index of the range (exclusive).
+     * @param bandSize Largest band that is run without splitting.
+     * @param action   The action to run on each band.
+     */
+    BandTask(int from, int to, int bandSize, BandAction action) {
+        this.from = from;
+        this.to = to;
+        this.bandSize = Math.max(1, bandSize);
+        this.action = action;
+    }
+
+    /**
+     * Runs the action directly on small ranges, and splits larger ranges in two halves.
+     */
+    @Override
+    protected void compute() {
+        if (to - from <= bandSize) {
+            action.run(from, to);
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        invokeAll(new BandTask(from, middle, bandSize, action),
+                new BandTask(middle, to, bandSize, action));
+    }
+}
@@ -0,0 +1,107 @@
+package image;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A mip pyramid of the luminance sums of the squares of an image, for every power of 2
+ * resolution from a finest one down to 1.
+ * The finest level is read from the brightness table of the image, and every coarser level
+ * is built by adding up each 2x2 block of squares of the level below. The sums are exact
+ * integers, so the brightness of every level is identical to computing it directly.
+ * The levels together hold at most 4/3 of the sums of the finest level.
+ */
+public class BrightnessPyramid {
+    private static final int BLOCK = 2; // Each square is made of BLOCK x BLOCK squares of the level below
+    private final long[][] levels; // levels[k] = square sums at resolution finestResolution >> k, row-major
+    private final int finestResolution; // The resolution of the finest level
+    private final long finestSquarePixels; // Number of pixels in a square of the finest level
+
+    /**
+     * Builds the pyramid of an image from its brightness table.
+     *
+     * @param table      The brightness table of the image.
+     * @param resolution The resolution of the finest level, a power of 2 supported by the table.
+     * @param pool       The pool to read the finest level on, or null to read it on the calling thread.
+     * @throws IllegalArgumentException If the resolution is not supported, see isSupported.
+     */
+    public BrightnessPyramid(BrightnessTable table, int resolution, ForkJoinPool pool) {
+        if (!isSupported(table, resolution)) {
+            throw new IllegalArgumentException("Resolution is not a power of 2 within the image: " + resolution);
+        }
+        finestResolution = resolution;
+        int squareSize = table.getPaddedHeight() / resolution;
+        finestSquarePixels = (long) squareSize * squareSize;
+        levels = new long[Integer.numberOfTrailingZeros(resolution) + 1][];
+        levels[0] = table.getSquareSums(resolution, pool);
+        for (int k = 1; k < levels.length; k++) {
+            levels[k] = sumBlocks(levels[k - 1], resolution >> (k - 1));
+        }
+    }
+
+    /**
+     * Returns whether a pyramid can be built from the table at the given resolution: the
+     * resolution must be a power of 2, and the squares of the padded image at least 1 pixel.
+     *
+     * @param table      The brightness table of the image.
+     * @param resolution The resolution of the finest level.
+     * @return Whether the resolution is supported.
+     */
+    public static boolean isSupported(BrightnessTable table, int resolution) {
+        return resolution > 0 && Integer.bitCount(resolution) == 1 && resolution <= table.getPaddedHeight();
+    }
+
+    /**
+     * Returns whether the pyramid has a level at the given resolution.
+     *
+     * @param resolution The resolution.
+     * @return Whether the resolution is a power of 2 no finer than the finest level.
+     */
+    public boolean hasResolution(int resolution) {
+        return resolution > 0 && Integer.bitCount(resolution) == 1 && resolution <= finestResolution;
+    }
+
+    /**
+     * Returns the brightness of every square of the level at the given resolution.
+     *
+     * @param resolution The resolution of the level.
+     * @return A 2D array holding the brightness of each square.
+     * @throws IllegalArgumentException If the pyramid has no such level.
+     */
+    public double[][] getBrightness(int resolution) {
+        if (!hasResolution(resolution)) {
+            throw new IllegalArgumentException("No pyramid level at resolution " + resolution);
+        }
+        int k = Integer.numberOfTrailingZeros(finestResolution / resolution);
+        long[] sums = levels[k];
+        long squarePixels = finestSquarePixels << (2 * k);
+        double[][] brightness = new double[resolution][resolution];
+        for (int i = 0; i < resolution; i++) {
+            for (int j = 0; j < resolution; j++) {
+                brightness[i][j] = ImageUtils.brightnessOfSum(sums[i * resolution + j], squarePixels);
+            }
+        }
+        return brightness;
+    }
+
+    /**
+     * Builds a level from the level below it, adding up each 2x2 block of squares.
+     *
+     * @param finer      The sums of the level below, row-major.
+     * @param resolution The resolution of the level below.
+     * @return The sums of the coarser level, row-major.
+     */
+    private static long[] sumBlocks(long[] finer, int resolution) {
+        int coarserResolution = resolution / BLOCK;
+        long[] coarser = new long[coarserResolution * coarserResolution];
+        for (int i = 0; i < coarserResolution; i++) {
+            int top = BLOCK * i * resolution;
+            int bottom = top + resolution;
+            for (int j = 0; j < coarserResolution; j++) {
+                int left = BLOCK * j;
+                coarser[i * coarserResolution + j] = finer[top + left] + finer[top + left + 1] +
+                        finer[bottom + left] + finer[bottom + left + 1];
+            }
+        }
+        return coarser;
+    }
+}
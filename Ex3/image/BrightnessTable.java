@@ -0,0 +1,679 @@
+package image;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A summed-area table (integral image) of the luminance of an image.
+ * The table is built once per image, after which the sum of the luminance over any
+ * rectangle of the image is available in constant time. This makes the brightness of
+ * every square at any resolution an O(1) lookup.
+ * The table only covers the original image. Squares are laid out over the image padded to
+ * powers of 2, and the padding is accounted for analytically as white, so it costs no memory
+ * and squares made only of padding need no lookup at all.
+ * Both building the table and reading a resolution out of it can be split across
+ * a ForkJoinPool. All sums are exact integers, so the parallel result is identical
+ * to the serial one.
+ * Optionally the table also sums the red, green and blue channels, in the same scan of the
+ * pixels, so the mean color of every square is available in constant time as well.
+ */
+public class BrightnessTable {
+    // Number of bands each worker of a pool gets, so that uneven bands balance out
+    private static final int BANDS_PER_WORKER = 4;
+    private static final int CHANNEL_MASK = 0xFF;
+    private static final int RED_SHIFT = 16;
+    private static final int GREEN_SHIFT = 8;
+    private final long[] sums; // sums[r * (width + 1) + c] = luminance sum of rows < r, cols < c
+    private final long[] redSums; // Same layout as sums for the red channel, null without color
+    private final long[] greenSums; // Same layout as sums for the green channel, null without color
+    private final long[] blueSums; // Same layout as sums for the blue channel, null without color
+    private final int width; // Width of the image the table was built from
+    private final int height; // Height of the image the table was built from
+    private final int paddedWidth; // Width of the image after padding to a power of 2
+    private final int paddedHeight; // Height of the image after padding to a power of 2
+    private final int padLeft; // Number of padding columns left of the image
+    private final int padTop; // Number of padding rows above the image
+
+    /**
+     * Builds the summed-area table of the given image.
+     *
+     * @param image The image to build the table from.
+     */
+    public BrightnessTable(Image image) {
+        this(image, null);
+    }
+
+    /**
+     * Builds the summed-area table of the given image, using the given pool.
+     * The rows are first summed independently, then each band of columns accumulates
+     * the row sums from top to bottom.
+     *
+     * @param image The image to build the table from.
+     * @param pool  The pool to build the table on, or null to build it on the calling thread.
+     */
+    public BrightnessTable(Image image, ForkJoinPool pool) {
+        this(image, pool, false);
+    }
+
+    /**
+     * Builds the summed-area table of the given image, using the given pool, optionally
+     * summing the color channels in the same pass.
+     *
+     * @param image     The image to build the table from.
+     * @param pool      The pool to build the table on, or null to build it on the calling thread.
+     * @param withColor Whether to also sum the red, green and blue channels.
+     */
+    public BrightnessTable(Image image, ForkJoinPool pool, boolean withColor) {
+        width = image.getWidth();
+        height = image.getHeight();
+        paddedWidth = ImageUtils.closestPowerOfTwo(width);
+        paddedHeight = ImageUtils.closestPowerOfTwo(height);
+        padLeft = (paddedWidth - width) / 2;
+        padTop = (paddedHeight - height) / 2;
+        sums = new long[(width + 1) * (height + 1)];
+        if (withColor) {
+            redSums = new long[sums.length];
+            greenSums = new long[sums.length];
+            blueSums = new long[sums.length];
+            runInBands(pool, height, (from, to) -> sumRowsWithColor(image, from, to));
+        } else {
+            redSums = null;
+            greenSums = null;
+            blueSums = null;
+            runInBands(pool, height, (from, to) -> sumRows(image, from, to));
+        }
+        runInBands(pool, width, this::accumulateColumns);
+    }
+
+    /**
+     * Writes the running sum of each of the given rows into the table.
+     *
+     * @param image The image the table is built from.
+     * @param from  First row (inclusive).
+     * @param to    Last row (exclusive).
+     */
+    private void sumRows(Image image, int from, int to) {
+        int stride = width + 1;
+        for (int i = from; i < to; i++) {
+            long rowSum = 0;
+            int current = (i + 1) * stride + 1;
+            for (int j = 0; j < width; j++) {
+                rowSum += image.getLuminance(i, j);
+                sums[current + j] = rowSum;
+            }
+        }
+    }
+
+    /**
+     * Writes the running sums of the luminance and of each color channel of the given rows
+     * into the tables, reading every pixel once.
+     *
+     * @param image The image the table is built from.
+     * @param from  First row (inclusive).
+     * @param to    Last row (exclusive).
+     */
+    private void sumRowsWithColor(Image image, int from, int to) {
+        int stride = width + 1;
+        for (int i = from; i < to; i++) {
+            long rowSum = 0;
+            long redSum = 0;
+            long greenSum = 0;
+            long blueSum = 0;
+            int current = (i + 1) * stride + 1;
+            for (int j = 0; j < width; j++) {
+                int rgb = image.getRGB(i, j);
+                rowSum += ImageUtils.getLuminance(rgb);
+                redSum += (rgb >> RED_SHIFT) & CHANNEL_MASK;
+                greenSum += (rgb >> GREEN_SHIFT) & CHANNEL_MASK;
+                blueSum += rgb & CHANNEL_MASK;
+                sums[current + j] = rowSum;
+                redSums[current + j] = redSum;
+                greenSums[current + j] = greenSum;
+                blueSums[current + j] = blueSum;
+            }
+        }
+    }
+
+    /**
+     * Adds to each row of the tables the row above it, for the given columns only.
+     *
+     * @param from First column (inclusive).
+     * @param to   Last column (exclusive).
+     */
+    private void accumulateColumns(int from, int to) {
+        accumulateColumns(sums, from, to);
+        if (redSums != null) {
+            accumulateColumns(redSums, from, to);
+            accumulateColumns(greenSums, from, to);
+            accumulateColumns(blueSums, from, to);
+        }
+    }
+
+    /**
+     * Adds to each row of one table the row above it, for the given columns only.
+     *
+     * @param table The table to accumulate.
+     * @param from  First column (inclusive).
+     * @param to    Last column (exclusive).
+     */
+    private void accumulateColumns(long[] table, int from, int to) {
+        int stride = width + 1;
+        for (int i = 2; i <= height; i++) {
+            int current = i * stride + 1;
+            int above = current - stride;
+            for (int j = from; j < to; j++) {
+                table[current + j] += table[above + j];
+            }
+        }
+    }
+
+    /**
+     * Runs the action over the indices [0, count), either directly or split into bands on the pool.
+     *
+     * @param pool   The pool to run on, or null to run on the calling thread.
+     * @param count  The number of indices.
+     * @param action The action to run on each band.
+     */
+    private static void runInBands(ForkJoinPool pool, int count, BandTask.BandAction action) {
+        if (pool == null) {
+            action.run(0, count);
+            return;
+        }
+        int bandSize = count / (pool.getParallelism() * BANDS_PER_WORKER);
+        pool.invoke(new BandTask(0, count, bandSize, action));
+    }
+
+    /**
+     * Returns the width of the image the table was built from.
+     *
+     * @return the width of the image
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the height of the image the table was built from.
+     *
+     * @return the height of the image
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the width of the image after padding to a power of 2.
+     *
+     * @return the padded width of the image
+     */
+    public int getPaddedWidth() {
+        return paddedWidth;
+    }
+
+    /**
+     * Returns the height of the image after padding to a power of 2.
+     *
+     * @return the padded height of the image
+     */
+    public int getPaddedHeight() {
+        return paddedHeight;
+    }
+
+    /**
+     * Returns whether the table also sums the color channels.
+     *
+     * @return true if the mean colors of squares can be computed
+     */
+    public boolean hasColor() {
+        return redSums != null;
+    }
+
+    /**
+     * Returns the number of longs held by the table, for estimating its memory.
+     *
+     * @return the number of table entries
+     */
+    public long getEntries() {
+        return hasColor() ? 4L * sums.length : sums.length;
+    }
+
+    /**
+     * Returns the scaled luminance sum of a rectangle of the image.
+     *
+     * @param startRow The first row of the rectangle.
+     * @param startCol The first column of the rectangle.
+     * @param rows     The number of rows in the rectangle.
+     * @param cols     The number of columns in the rectangle.
+     * @return The sum of the scaled luminance of all pixels in the rectangle.
+     */
+    public long getLuminanceSum(int startRow, int startCol, int rows, int cols) {
+        return getSum(sums, startRow, startCol, rows, cols);
+    }
+
+    /**
+     * Returns the sum of a rectangle of one of the tables.
+     *
+     * @param table    The table.
+     * @param startRow The first row of the rectangle.
+     * @param startCol The first column of the rectangle.
+     * @param rows     The number of rows in the rectangle.
+     * @param cols     The number of columns in the rectangle.
+     * @return The sum of the table over the rectangle.
+     */
+    private long getSum(long[] table, int startRow, int startCol, int rows, int cols) {
+        int stride = width + 1;
+        int top = startRow * stride;
+        int bottom = (startRow + rows) * stride;
+        int left = startCol;
+        int right = startCol + cols;
+        return table[bottom + right] - table[top + right] - table[bottom + left] + table[top + left];
+    }
+
+    /**
+     * Returns the scaled luminance sum of a rectangle of the padded image.
+     * The part of the rectangle inside the original image is read from the table,
+     * and every other pixel counts as white.
+     *
+     * @param startRow The first row of the rectangle, in padded coordinates.
+     * @param startCol The first column of the rectangle, in padded coordinates.
+     * @param rows     The number of rows in the rectangle.
+     * @param cols     The number of columns in the rectangle.
+     * @return The sum of the scaled luminance of all pixels in the rectangle.
+     */
+    public long getPaddedLuminanceSum(int startRow, int startCol, int rows, int cols) {
+        int firstRow = Math.max(0, startRow - padTop);
+        int lastRow = Math.min(height, startRow + rows - padTop);
+        int firstCol = Math.max(0, startCol - padLeft);
+        int lastCol = Math.min(width, startCol + cols - padLeft);
+        long whitePixels = (long) rows * cols;
+        if (firstRow >= lastRow || firstCol >= lastCol) {
+            // The rectangle is made only of padding
+            return whitePixels * ImageUtils.WHITE_LUMINANCE;
+        }
+        int insideRows = lastRow - firstRow;
+        int insideCols = lastCol - firstCol;
+        whitePixels -= (long) insideRows * insideCols;
+        return getLuminanceSum(firstRow, firstCol, insideRows, insideCols) +
+                whitePixels * ImageUtils.WHITE_LUMINANCE;
+    }
+
+    /**
+     * Returns the average brightness of a rectangle of the image.
+     *
+     * @param startRow The first row of the rectangle.
+     * @param startCol The first column of the rectangle.
+     * @param rows     The number of rows in the rectangle.
+     * @param cols     The number of columns in the rectangle.
+     * @return The brightness of the rectangle, a value between 0 and 1.
+     */
+    public double getBrightness(int startRow, int startCol, int rows, int cols) {
+        return ImageUtils.brightnessOfSum(getLuminanceSum(startRow, startCol, rows, cols),
+                (long) rows * cols);
+    }
+
+    /**
+     * Calculates the brightness of every square of the image at the given resolution.
+     * The squares are laid out over the padded image exactly as in
+     * ImageUtils.imageAfterResolution, so the result is identical to computing the brightness
+     * of each of the sub images of the padded image.
+     *
+     * @param resolution The number of squares in each row and column.
+     * @return A 2D array holding the brightness of each square.
+     */
+    public double[][] getBrightnessAtResolution(int resolution) {
+        return getBrightnessAtResolution(resolution, null);
+    }
+
+    /**
+     * Calculates the brightness of every square of the image at the given resolution,
+     * splitting the rows of squares across the given pool.
+     *
+     * @param resolution The number of squares in each row and column.
+     * @param pool       The pool to run on, or null to run on the calling thread.
+     * @return A 2D array holding the brightness of each square.
+     */
+    public double[][] getBrightnessAtResolution(int resolution, ForkJoinPool pool) {
+        int squareSize = paddedHeight / resolution;
+        long squarePixels = (long) squareSize * squareSize;
+        double[][] brightness = new double[resolution][resolution];
+        runInBands(pool, resolution, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                for (int j = 0; j < resolution; j++) {
+                    long sum = getPaddedLuminanceSum(i * squareSize, j * squareSize,
+                            squareSize, squareSize);
+                    brightness[i][j] = ImageUtils.brightnessOfSum(sum, squarePixels);
+                }
+            }
+        });
+        return brightness;
+    }
+
+    /**
+     * Calculates the scaled luminance sum of every square of the image at the given resolution,
+     * with the squares laid out as in {@link #getBrightnessAtResolution(int, ForkJoinPool)}.
+     *
+     * @param resolution The number of squares in each row and column.
+     * @param pool       The pool to run on, or null to run on the calling thread.
+     * @return The luminance sum of each square, row-major.
+     */
+    public long[] getSquareSums(int resolution, ForkJoinPool pool) {
+        int squareSize = paddedHeight / resolution;
+        long[] squareSums = new long[resolution * resolution];
+        runInBands(pool, resolution, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                for (int j = 0; j < resolution; j++) {
+                    squareSums[i * resolution + j] = getPaddedLuminanceSum(i * squareSize, j * squareSize,
+                            squareSize, squareSize);
+                }
+            }
+        });
+        return squareSums;
+    }
+
+    /**
+     * Calculates the mean color of every square of the image at the given resolution.
+     * The squares are laid out as in {@link #getBrightnessAtResolution(int, ForkJoinPool)},
+     * and padding counts as white.
+     *
+     * @param resolution The number of squares in each row and column.
+     * @param pool       The pool to run on, or null to run on the calling thread.
+     * @return The packed RGB (0xRRGGBB) mean color of each square, row-major.
+     * @throws IllegalStateException If the table was built without color.
+     */
+    public int[] getColorsAtResolution(int resolution, ForkJoinPool pool) {
+        if (!hasColor()) {
+            throw new IllegalStateException("The brightness table was built without color");
+        }
+        int squareSize = paddedHeight / resolution;
+        int[] colors = new int[resolution * resolution];
+        runInBands(pool, resolution, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                for (int j = 0; j < resolution; j++) {
+                    colors[i * resolution + j] = getPaddedMeanColor(i * squareSize, j * squareSize,
+                            squareSize, squareSize);
+                }
+            }
+        });
+        return colors;
+    }
+
+    /**
+     * An action on the samples of one square of the image.
+     */
+    public interface SquareSamplesAction {
+        /**
+         * Runs the action on the samples of a square.
+         *
+         * @param row     The row of the square.
+         * @param col     The column of the square.
+         * @param samples The brightness of the square on a grid x grid grid, row-major. The array
+         *                is reused for the next square of the same band.
+         */
+        void accept(int row, int col, float[] samples);
+    }
+
+    /**
+     * Samples every square of the image at the given resolution on a grid of the given size,
+     * and runs an action on the samples of each square. The squares are laid out as in
+     * {@link #getBrightnessAtResolution(int, ForkJoinPool)}. Each sample is the brightness of
+     * its cell of the square; when the square is smaller than the grid, cells are one pixel
+     * and neighbouring samples repeat it.
+     *
+     * @param resolution The number of squares in each row and column.
+     * @param grid       The number of samples in each row and column of a square.
+     * @param pool       The pool to run on, or null to run on the calling thread.
+     * @param action     The action to run on the samples of each square. With a pool, it runs
+     *                   on several threads at once, for different squares.
+     */
+    public void forEachSquareSamples(int resolution, int grid, ForkJoinPool pool,
+                                     SquareSamplesAction action) {
+        int squareSize = paddedHeight / resolution;
+        // The cells are the same in every square: cell k spans edges[low[k]] to edges[high[k]]
+        int[] starts = new int[grid];
+        int[] ends = new int[grid];
+        int[] allEdges = new int[2 * grid];
+        for (int k = 0; k < grid; k++) {
+            starts[k] = Math.min(k * squareSize / grid, squareSize - 1);
+            ends[k] = Math.max(starts[k] + 1, (k + 1) * squareSize / grid);
+            allEdges[2 * k] = starts[k];
+            allEdges[2 * k + 1] = ends[k];
+        }
+        int[] edges = Arrays.stream(allEdges).sorted().distinct().toArray();
+        int[] low = new int[grid];
+        int[] high = new int[grid];
+        for (int k = 0; k < grid; k++) {
+            low[k] = Arrays.binarySearch(edges, starts[k]);
+            high[k] = Arrays.binarySearch(edges, ends[k]);
+        }
+        int edgeCount = edges.length;
+        // Brightness per unit of luminance sum of each cell, to multiply by rather than divide
+        double[] cellScale = new double[grid * grid];
+        for (int y = 0; y < grid; y++) {
+            for (int x = 0; x < grid; x++) {
+                cellScale[y * grid + x] = ImageUtils.brightnessOfSum(1,
+                        (long) (ends[y] - starts[y]) * (ends[x] - starts[x]));
+            }
+        }
+        int edgesPerSide = edgeCount;
+        runInBands(pool, resolution, (from, to) -> {
+            float[] samples = new float[grid * grid];
+            long[] corners = new long[edgesPerSide * edgesPerSide];
+            for (int i = from; i < to; i++) {
+                for (int j = 0; j < resolution; j++) {
+                    // Look up each corner of the cells once, instead of four times per cell
+                    for (int y = 0; y < edgesPerSide; y++) {
+                        for (int x = 0; x < edgesPerSide; x++) {
+                            corners[y * edgesPerSide + x] = getPaddedPrefixSum(
+                                    i * squareSize + edges[y], j * squareSize + edges[x]);
+                        }
+                    }
+                    for (int y = 0; y < grid; y++) {
+                        int top = low[y] * edgesPerSide;
+                        int bottom = high[y] * edgesPerSide;
+                        for (int x = 0; x < grid; x++) {
+                            long sum = corners[bottom + high[x]] - corners[top + high[x]] -
+                                    corners[bottom + low[x]] + corners[top + low[x]];
+                            samples[y * grid + x] = (float) (sum * cellScale[y * grid + x]);
+                        }
+                    }
+                    action.accept(i, j, samples);
+                }
+            }
+        });
+    }
+
+    /**
+     * Calculates the brightness of every cell of a grid of the given columns and rows laid
+     * over the image itself, without padding. Cell edges are rounded down to whole pixels,
+     * so each pixel belongs to exactly one cell and the cells of a row or column differ in
+     * size by at most one pixel. Each cell's sum is exact over its own pixel range.
+     *
+     * @param cols The number of cells in each row, between 1 and the width of the image.
+     * @param rows The number of cells in each column, between 1 and the height of the image.
+     * @param pool The pool to run on, or null to run on the calling thread.
+     * @return A rows x cols array holding the brightness of each cell.
+     * @throws IllegalArgumentException If the grid has more cells per side than the image has pixels.
+     */
+    public double[][] getBrightnessAtGrid(int cols, int rows, ForkJoinPool pool) {
+        int[] colEdges = getGridEdges(width, cols);
+        int[] rowEdges = getGridEdges(height, rows);
+        double[][] brightness = new double[rows][cols];
+        runInBands(pool, rows, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                int cellRows = rowEdges[i + 1] - rowEdges[i];
+                for (int j = 0; j < cols; j++) {
+                    int cellCols = colEdges[j + 1] - colEdges[j];
+                    brightness[i][j] = getBrightness(rowEdges[i], colEdges[j], cellRows, cellCols);
+                }
+            }
+        });
+        return brightness;
+    }
+
+    /**
+     * Calculates the mean color of every cell of a grid laid over the image itself, with the
+     * cells laid out as in {@link #getBrightnessAtGrid(int, int, ForkJoinPool)}.
+     *
+     * @param cols The number of cells in each row, between 1 and the width of the image.
+     * @param rows The number of cells in each column, between 1 and the height of the image.
+     * @param pool The pool to run on, or null to run on the calling thread.
+     * @return The packed RGB (0xRRGGBB) mean color of each cell, row-major.
+     * @throws IllegalStateException    If the table was built without color.
+     * @throws IllegalArgumentException If the grid has more cells per side than the image has pixels.
+     */
+    public int[] getColorsAtGrid(int cols, int rows, ForkJoinPool pool) {
+        if (!hasColor()) {
+            throw new IllegalStateException("The brightness table was built without color");
+        }
+        int[] colEdges = getGridEdges(width, cols);
+        int[] rowEdges = getGridEdges(height, rows);
+        int[] colors = new int[rows * cols];
+        runInBands(pool, rows, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                for (int j = 0; j < cols; j++) {
+                    // Cells lie inside the image, so no padding is counted in their mean color
+                    colors[i * cols + j] = getPaddedMeanColor(rowEdges[i] + padTop, colEdges[j] + padLeft,
+                            rowEdges[i + 1] - rowEdges[i], colEdges[j + 1] - colEdges[j]);
+                }
+            }
+        });
+        return colors;
+    }
+
+    /**
+     * Samples every cell of a grid laid over the image itself on a grid of the given size, and
+     * runs an action on the samples of each cell. The cells are laid out as in
+     * {@link #getBrightnessAtGrid(int, int, ForkJoinPool)} and need not be square: the samples
+     * split the height and the width of a cell separately. When a cell is smaller than the
+     * sampling grid, samples are one pixel and neighbouring samples repeat it.
+     *
+     * @param cols   The number of cells in each row, between 1 and the width of the image.
+     * @param rows   The number of cells in each column, between 1 and the height of the image.
+     * @param grid   The number of samples in each row and column of a cell.
+     * @param pool   The pool to run on, or null to run on the calling thread.
+     * @param action The action to run on the samples of each cell. With a pool, it runs on
+     *               several threads at once, for different cells.
+     * @throws IllegalArgumentException If the grid has more cells per side than the image has pixels.
+     */
+    public void forEachCellSamples(int cols, int rows, int grid, ForkJoinPool pool,
+                                   SquareSamplesAction action) {
+        int[][] colSamples = getSampleEdges(getGridEdges(width, cols), grid);
+        int[][] rowSamples = getSampleEdges(getGridEdges(height, rows), grid);
+        runInBands(pool, rows, (from, to) -> {
+            float[] samples = new float[grid * grid];
+            for (int i = from; i < to; i++) {
+                int[] rowEdges = rowSamples[i];
+                for (int j = 0; j < cols; j++) {
+                    int[] colEdges = colSamples[j];
+                    for (int y = 0; y < grid; y++) {
+                        int sampleRows = rowEdges[y + grid] - rowEdges[y];
+                        for (int x = 0; x < grid; x++) {
+                            samples[y * grid + x] = (float) getBrightness(rowEdges[y], colEdges[x],
+                                    sampleRows, colEdges[x + grid] - colEdges[x]);
+                        }
+                    }
+                    action.accept(i, j, samples);
+                }
+            }
+        });
+    }
+
+    /**
+     * Splits a length of pixels into the given number of parts, as evenly as whole pixels allow.
+     *
+     * @param length The number of pixels.
+     * @param parts  The number of parts.
+     * @return The parts + 1 edges of the parts, from 0 to length.
+     * @throws IllegalArgumentException If there are no parts, or more parts than pixels.
+     */
+    private static int[] getGridEdges(int length, int parts) {
+        if (parts < 1 || parts > length) {
+            throw new IllegalArgumentException("Cannot split " + length + " pixels into " + parts + " cells");
+        }
+        int[] edges = new int[parts + 1];
+        for (int k = 0; k <= parts; k++) {
+            edges[k] = (int) ((long) k * length / parts);
+        }
+        return edges;
+    }
+
+    /**
+     * Splits each part of a length into the samples of a grid, one pixel or more per sample.
+     *
+     * @param edges The edges of the parts, as returned by getGridEdges.
+     * @param grid  The number of samples in each part.
+     * @return For each part, the starts of its samples followed by their ends.
+     */
+    private static int[][] getSampleEdges(int[] edges, int grid) {
+        int[][] sampleEdges = new int[edges.length - 1][2 * grid];
+        for (int part = 0; part < sampleEdges.length; part++) {
+            int start = edges[part];
+            int size = edges[part + 1] - start;
+            for (int k = 0; k < grid; k++) {
+                int sampleStart = Math.min(k * size / grid, size - 1);
+                sampleEdges[part][k] = start + sampleStart;
+                sampleEdges[part][k + grid] = start + Math.max(sampleStart + 1, (k + 1) * size / grid);
+            }
+        }
+        return sampleEdges;
+    }
+
+    /**
+     * Returns the scaled luminance sum of all pixels of the padded image above and to the left
+     * of a point, counting padding as white.
+     *
+     * @param row The row of the point, in padded coordinates, from 0 to the padded height.
+     * @param col The column of the point, in padded coordinates, from 0 to the padded width.
+     * @return The sum of the scaled luminance of the rows before row and columns before col.
+     */
+    private long getPaddedPrefixSum(int row, int col) {
+        int insideRows = Math.max(0, Math.min(height, row - padTop));
+        int insideCols = Math.max(0, Math.min(width, col - padLeft));
+        long whitePixels = (long) row * col - (long) insideRows * insideCols;
+        return sums[insideRows * (width + 1) + insideCols] + whitePixels * ImageUtils.WHITE_LUMINANCE;
+    }
+
+    /**
+     * Returns the mean color of a rectangle of the padded image, counting padding as white.
+     *
+     * @param startRow The first row of the rectangle, in padded coordinates.
+     * @param startCol The first column of the rectangle, in padded coordinates.
+     * @param rows     The number of rows in the rectangle.
+     * @param cols     The number of columns in the rectangle.
+     * @return The packed RGB mean color of the rectangle.
+     */
+    private int getPaddedMeanColor(int startRow, int startCol, int rows, int cols) {
+        int firstRow = Math.max(0, startRow - padTop);
+        int lastRow = Math.min(height, startRow + rows - padTop);
+        int firstCol = Math.max(0, startCol - padLeft);
+        int lastCol = Math.min(width, startCol + cols - padLeft);
+        long pixels = (long) rows * cols;
+        long whitePixels = pixels;
+        long red = 0;
+        long green = 0;
+        long blue = 0;
+        if (firstRow < lastRow && firstCol < lastCol) {
+            int insideRows = lastRow - firstRow;
+            int insideCols = lastCol - firstCol;
+            whitePixels -= (long) insideRows * insideCols;
+            red = getSum(redSums, firstRow, firstCol, insideRows, insideCols);
+            green = getSum(greenSums, firstRow, firstCol, insideRows, insideCols);
+            blue = getSum(blueSums, firstRow, firstCol, insideRows, insideCols);
+        }
+        long white = whitePixels * CHANNEL_MASK;
+        return meanChannel(red + white, pixels) << RED_SHIFT |
+                meanChannel(green + white, pixels) << GREEN_SHIFT |
+                meanChannel(blue + white, pixels);
+    }
+
+    /**
+     * Returns the rounded mean of a channel sum.
+     *
+     * @param sum    The sum of the channel.
+     * @param pixels The number of pixels summed.
+     * @return The mean value of the channel, between 0 and 255.
+     */
+    private static int meanChannel(long sum, long pixels) {
+        return (int) ((sum + pixels / 2) / pixels);
+    }
+}
@@ -0,0 +1,304 @@
+package image;
+
+import org.w3c.dom.Node;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A sequence of frames read one at a time, either from an animated GIF or from a directory
+ * of numbered image files.
+ * GIF frames are composited onto a canvas of the logical screen size, honouring each frame's
+ * position, transparency and disposal method, so every returned frame is the full picture as
+ * it would be displayed. Areas not yet painted are white, like padding.
+ * Frames of a directory are ordered by the first number in their file name, then by name.
+ * Only the current frame is held in memory. A returned frame is only valid until the next
+ * call to next, since the canvas is reused.
+ */
+public class FrameSequence implements Closeable {
+    private static final String GIF_FORMAT = "gif";
+    private static final String GIF_STREAM_METADATA = "javax_imageio_gif_stream_1.0";
+    private static final String GIF_IMAGE_METADATA = "javax_imageio_gif_image_1.0";
+    private static final String RESTORE_TO_BACKGROUND = "restoreToBackgroundColor";
+    private static final String RESTORE_TO_PREVIOUS = "restoreToPrevious";
+    private static final Pattern NUMBER = Pattern.compile("\\d+");
+    private static final int WHITE_RGB = 0xFFFFFFFF;
+    private static final int ALPHA_SHIFT = 24;
+
+    private final List<File> files; // The frames of a directory, null for a GIF
+    private final ImageInputStream stream; // The stream of a GIF, null for a directory
+    private final ImageReader reader; // The reader of a GIF, null for a directory
+    private int index; // The index of the next frame
+    private int[] canvas; // The composited GIF frame, row-major ARGB
+    private int[] saved; // The canvas before the last frame was drawn, for restoreToPrevious
+    private int canvasWidth; // Width of the GIF canvas
+    private int canvasHeight; // Height of the GIF canvas
+    private String lastDisposal; // Disposal method of the last GIF frame
+    private int lastLeft; // Left position of the last GIF frame on the canvas
+    private int lastTop; // Top position of the last GIF frame on the canvas
+    private int lastWidth; // Width of the last GIF frame
+    private int lastHeight; // Height of the last GIF frame
+
+    /**
+     * Opens a sequence of frames from a directory of image files.
+     *
+     * @param files The frame files, in order.
+     */
+    private FrameSequence(List<File> files) {
+        this.files = files;
+        this.stream = null;
+        this.reader = null;
+    }
+
+    /**
+     * Opens a sequence of frames from a GIF.
+     *
+     * @param stream The stream of the GIF.
+     * @param reader The GIF reader, with its input set to the stream.
+     */
+    private FrameSequence(ImageInputStream stream, ImageReader reader) {
+        this.files = null;
+        this.stream = stream;
+        this.reader = reader;
+    }
+
+    /**
+     * Opens a sequence of frames.
+     *
+     * @param path An animated GIF, or a directory of numbered frames.
+     * @return The sequence of frames.
+     * @throws IOException If the file or directory cannot be read.
+     */
+    public static FrameSequence open(String path) throws IOException {
+        File file = new File(path);
+        if (file.isDirectory()) {
+            File[] entries = file.listFiles(File::isFile);
+            if (entries == null) {
+                throw new IOException("Cannot list frames: " + path);
+            }
+            List<File> frames = new ArrayList<>(Arrays.asList(entries));
+            frames.sort(Comparator.comparingLong(FrameSequence::frameNumber).thenComparing(File::getName));
+            return new FrameSequence(frames);
+        }
+        ImageInputStream stream = ImageIO.createImageInputStream(file);
+        if (stream == null) {
+            throw new IOException("Cannot open frames: " + path);
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+        if (!readers.hasNext()) {
+            stream.close();
+            throw new IOException("Unsupported image format: " + path);
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(stream, false, false);
+        return new FrameSequence(stream, reader);
+    }
+
+    /**
+     * Reads the next frame.
+     *
+     * @return The next frame, valid until the next call, or null after the last frame.
+     * @throws IOException If the frame cannot be read.
+     */
+    public Image next() throws IOException {
+        if (files != null) {
+            return index < files.size() ? new Image(files.get(index++).getPath()) : null;
+        }
+        BufferedImage frame;
+        try {
+            frame = reader.read(index);
+        } catch (IndexOutOfBoundsException e) {
+            return null; // The reader only finds the number of frames by reading past the last one
+        }
+        if (!reader.getFormatName().equalsIgnoreCase(GIF_FORMAT)) {
+            // Other multi-image formats hold full frames
+            index++;
+            int width = frame.getWidth();
+            int height = frame.getHeight();
+            int[] pixels = frame.getRGB(0, 0, width, height, null, 0, width);
+            return new Image(pixels, width, height);
+        }
+        compositeGifFrame(frame, reader.getImageMetadata(index));
+        index++;
+        return new Image(canvas, canvasWidth, canvasHeight);
+    }
+
+    /**
+     * Disposes of the previous GIF frame, then draws a frame onto the canvas.
+     *
+     * @param frame    The decoded frame, which may cover only part of the canvas.
+     * @param metadata The metadata of the frame.
+     */
+    private void compositeGifFrame(BufferedImage frame, IIOMetadata metadata) {
+        Node imageRoot = metadata.getAsTree(GIF_IMAGE_METADATA);
+        Node descriptor = findChild(imageRoot, "ImageDescriptor");
+        Node control = findChild(imageRoot, "GraphicControlExtension");
+        int left = getIntAttribute(descriptor, "imageLeftPosition");
+        int top = getIntAttribute(descriptor, "imageTopPosition");
+        if (canvas == null) {
+            createCanvas(frame, left, top);
+        }
+        if (RESTORE_TO_BACKGROUND.equals(lastDisposal)) {
+            fillRect(lastLeft, lastTop, lastWidth, lastHeight);
+        } else if (RESTORE_TO_PREVIOUS.equals(lastDisposal)) {
+            System.arraycopy(saved, 0, canvas, 0, canvas.length);
+        }
+        lastDisposal = control == null ? null : getAttribute(control, "disposalMethod");
+        if (RESTORE_TO_PREVIOUS.equals(lastDisposal)) {
+            if (saved == null) {
+                saved = new int[canvas.length];
+            }
+            System.arraycopy(canvas, 0, saved, 0, canvas.length);
+        }
+        lastLeft = left;
+        lastTop = top;
+        lastWidth = frame.getWidth();
+        lastHeight = frame.getHeight();
+
+        int[] row = new int[lastWidth];
+        for (int y = 0; y < lastHeight; y++) {
+            int canvasRow = top + y;
+            if (canvasRow < 0 || canvasRow >= canvasHeight) {
+                continue;
+            }
+            frame.getRGB(0, y, lastWidth, 1, row, 0, lastWidth);
+            for (int x = 0; x < lastWidth; x++) {
+                int canvasCol = left + x;
+                // Transparent pixels leave the canvas as it was
+                if (canvasCol >= 0 && canvasCol < canvasWidth && row[x] >>> ALPHA_SHIFT != 0) {
+                    canvas[canvasRow * canvasWidth + canvasCol] = row[x];
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the white canvas, sized by the logical screen of the GIF, or by the first
+     * frame if the GIF does not give one.
+     *
+     * @param first The first frame.
+     * @param left  The left position of the first frame.
+     * @param top   The top position of the first frame.
+     */
+    private void createCanvas(BufferedImage first, int left, int top) {
+        canvasWidth = left + first.getWidth();
+        canvasHeight = top + first.getHeight();
+        try {
+            IIOMetadata streamMetadata = reader.getStreamMetadata();
+            if (streamMetadata != null) {
+                Node screen = findChild(streamMetadata.getAsTree(GIF_STREAM_METADATA),
+                        "LogicalScreenDescriptor");
+                if (screen != null) {
+                    canvasWidth = Math.max(1, getIntAttribute(screen, "logicalScreenWidth"));
+                    canvasHeight = Math.max(1, getIntAttribute(screen, "logicalScreenHeight"));
+                }
+            }
+        } catch (IOException e) {
+            // Without stream metadata the first frame gives the size
+        }
+        canvas = new int[canvasWidth * canvasHeight];
+        Arrays.fill(canvas, WHITE_RGB);
+    }
+
+    /**
+     * Fills a rectangle of the canvas with white, clipped to the canvas.
+     *
+     * @param left   The left column of the rectangle.
+     * @param top    The top row of the rectangle.
+     * @param width  The width of the rectangle.
+     * @param height The height of the rectangle.
+     */
+    private void fillRect(int left, int top, int width, int height) {
+        int firstCol = Math.max(0, left);
+        int lastCol = Math.min(canvasWidth, left + width);
+        for (int y = Math.max(0, top); y < Math.min(canvasHeight, top + height); y++) {
+            if (firstCol < lastCol) {
+                Arrays.fill(canvas, y * canvasWidth + firstCol, y * canvasWidth + lastCol, WHITE_RGB);
+            }
+        }
+    }
+
+    /**
+     * Returns the first child of a metadata node with the given name.
+     *
+     * @param parent The node.
+     * @param name   The name of the child.
+     * @return The child, or null if there is none.
+     */
+    private static Node findChild(Node parent, String name) {
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeName().equals(name)) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns an attribute of a metadata node.
+     *
+     * @param node The node.
+     * @param name The name of the attribute.
+     * @return The value of the attribute, or null if it is missing.
+     */
+    private static String getAttribute(Node node, String name) {
+        Node attribute = node.getAttributes().getNamedItem(name);
+        return attribute == null ? null : attribute.getNodeValue();
+    }
+
+    /**
+     * Returns an integer attribute of a metadata node.
+     *
+     * @param node The node, may be null.
+     * @param name The name of the attribute.
+     * @return The value of the attribute, or 0 if the node or attribute is missing.
+     */
+    private static int getIntAttribute(Node node, String name) {
+        String value = node == null ? null : getAttribute(node, name);
+        return value == null ? 0 : Integer.parseInt(value);
+    }
+
+    /**
+     * Returns the first number in the name of a frame file, used to order the frames.
+     *
+     * @param file The frame file.
+     * @return The number, or Long.MAX_VALUE if the name has none.
+     */
+    private static long frameNumber(File file) {
+        Matcher matcher = NUMBER.matcher(file.getName());
+        if (!matcher.find()) {
+            return Long.MAX_VALUE;
+        }
+        try {
+            return Long.parseLong(matcher.group());
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Closes the GIF stream, if any.
+     *
+     * @throws IOException If the stream cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (reader != null) {
+            reader.dispose();
+            stream.close();
+        }
+    }
+}
@@ -3,41 +3,202 @@ package image;
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 
 /**
  * Represents an image with methods to read from file, create from pixel array, and save to file.
- * This class is package-private and part of the image package.
+ * The pixels are kept packed as ARGB ints in a single row-major array, so no per-pixel
+ * objects are created while loading or processing the image.
+ * Binary PPM and PGM files, and headerless RGB dumps, are memory-mapped instead of decoded:
+ * their pixels are read straight from the mapping, so no copy of them is ever made on the heap.
+ * Files decoded by ImageIO keep the samples of the decoder where their layout allows, 1 byte
+ * per pixel for gray images and 3 or 4 for color ones, and their luminance is read from the
+ * samples directly.
+ * An image can also be a view over a window of another image, sharing its pixels.
+ * Pixels of the window that fall outside the other image are white, which is how
+ * padding is applied without copying the image.
  *
  * @author Dan Nirel
  */
 public class Image {
+    // Digest of the content, collision resistant so that no image can be made to pass for another
+    private static final String DIGEST_ALGORITHM = "SHA-256";
 
-    private final Color[][] pixelArray; // Array holding pixel colors
+    private static final int WHITE_RGB = 0xFFFFFFFF;
+
+    private final int[] pixels; // Packed ARGB pixels, row-major (row * width + col), null if not held
+    private final PixelStore store; // Pixels held elsewhere, such as a mapped file, null otherwise
+    private final Image source; // The image this image is a view of, null if it owns its pixels
+    private final int rowOffset; // Row of the source image at row 0 of the view
+    private final int colOffset; // Column of the source image at column 0 of the view
     private final int width; // Width of the image
     private final int height; // Height of the image
+    private volatile String contentDigest; // Digest of the dimensions and pixels, computed on first use
 
     /**
      * Constructs an Image object by reading an image file.
+     * A binary PPM or PGM file is memory-mapped, any other format is decoded with ImageIO.
      *
      * @param filename the path to the image file
      * @throws IOException if an error occurs while reading the image file
      */
     public Image(String filename) throws IOException {
-        BufferedImage im = ImageIO.read(new File(filename));
+        this(readFile(filename));
+    }
+
+    /**
+     * Constructs an Image object by memory-mapping a headerless file of 8-bit RGB triples,
+     * row by row, such as a raw camera frame. The pixels are read from the mapping as needed
+     * and never copied to the heap.
+     *
+     * @param filename the path to the raw file
+     * @param width    the width of the image
+     * @param height   the height of the image
+     * @throws IOException if the file cannot be mapped or its size does not match the dimensions
+     */
+    public Image(String filename, int width, int height) throws IOException {
+        this(MappedPixelStore.openRawRgb(Paths.get(filename), width, height));
+    }
+
+    /**
+     * Constructs an Image object by decoding the bytes of an image file, for example an
+     * image received over the network.
+     *
+     * @param encoded the bytes of the image file, in any format ImageIO can read
+     * @throws IOException if the bytes cannot be decoded
+     */
+    public Image(byte[] encoded) throws IOException {
+        this(fromDecoded(checkDecoded(ImageIO.read(new ByteArrayInputStream(encoded)), "image bytes")));
+    }
+
+    /**
+     * Constructs an Image object from a decoded image, copying its pixels.
+     *
+     * @param im the decoded image
+     */
+    public Image(BufferedImage im) {
         width = im.getWidth();
         height = im.getHeight();
+        store = null;
+        source = null;
+        rowOffset = 0;
+        colOffset = 0;
 
-        pixelArray = new Color[height][width];
-        // Populate the pixelArray with colors from the BufferedImage
+        pixels = new int[width * height];
+        // Read the BufferedImage one row at a time straight into the packed array
         for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                pixelArray[i][j] = new Color(im.getRGB(j, i));
-            }
+            im.getRGB(0, i, width, 1, pixels, i * width, width);
         }
     }
 
+    /**
+     * Constructs an Image object sharing the pixels of another image.
+     *
+     * @param other the image whose pixels are shared
+     */
+    private Image(Image other) {
+        this.pixels = other.pixels;
+        this.store = other.store;
+        this.width = other.width;
+        this.height = other.height;
+        this.source = other.source;
+        this.rowOffset = other.rowOffset;
+        this.colOffset = other.colOffset;
+    }
+
+    /**
+     * Constructs an Image object over a mapped file of pixels.
+     *
+     * @param mapped the pixels of the file
+     */
+    private Image(MappedPixelStore mapped) {
+        this(mapped, mapped.getWidth(), mapped.getHeight());
+    }
+
+    /**
+     * Constructs an Image object whose pixels are read from a store.
+     *
+     * @param store  the pixels
+     * @param width  the width of the image
+     * @param height the height of the image
+     */
+    Image(PixelStore store, int width, int height) {
+        this.pixels = null;
+        this.store = store;
+        this.width = width;
+        this.height = height;
+        this.source = null;
+        this.rowOffset = 0;
+        this.colOffset = 0;
+    }
+
+    /**
+     * Checks whether a file is a binary PPM or PGM file, which this class memory-maps instead
+     * of decoding, so any row of it can be read without reading the rows before it.
+     *
+     * @param filename the path to the image file
+     * @return whether the file is a binary PPM or PGM file
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isPortableAnymap(String filename) throws IOException {
+        return MappedPixelStore.isPortableAnymap(Paths.get(filename));
+    }
+
+    /**
+     * Constructs an Image object from the file of a stored image: a mapped PPM or PGM file,
+     * or any other format decoded by ImageIO.
+     *
+     * @param filename the path to the image file
+     * @return the image, to construct this image from
+     * @throws IOException if the file cannot be read or decoded
+     */
+    private static Image readFile(String filename) throws IOException {
+        Path path = Paths.get(filename);
+        if (MappedPixelStore.isPortableAnymap(path)) {
+            return new Image(MappedPixelStore.openPortableAnymap(path));
+        }
+        return fromDecoded(checkDecoded(ImageIO.read(path.toFile()), filename));
+    }
+
+    /**
+     * Constructs an Image object over the raster of an image this class decoded, which no
+     * one else holds, so its samples can be read in place instead of being packed into ints.
+     * Images of a layout the raster store does not support are copied.
+     *
+     * @param im the decoded image
+     * @return the image, to construct this image from
+     */
+    private static Image fromDecoded(BufferedImage im) {
+        RasterPixelStore raster = RasterPixelStore.wrap(im);
+        if (raster == null) {
+            return new Image(im);
+        }
+        return new Image(raster, im.getWidth(), im.getHeight());
+    }
+
+    /**
+     * Checks that ImageIO could decode an image.
+     *
+     * @param im          the decoded image, null if no reader could decode it
+     * @param description the file or source of the image, for the error message
+     * @return the decoded image
+     * @throws IOException if the image could not be decoded
+     */
+    private static BufferedImage checkDecoded(BufferedImage im, String description) throws IOException {
+        if (im == null) {
+            throw new IOException("Unsupported image format: " + description);
+        }
+        return im;
+    }
+
 
     /**
      * Constructs an Image object from a 2D array of Color objects.
@@ -47,7 +208,55 @@ public class Image {
      * @param height     the height of the image
      */
     public Image(Color[][] pixelArray, int width, int height) {
-        this.pixelArray = pixelArray;
+        this.width = width;
+        this.height = height;
+        this.store = null;
+        this.source = null;
+        this.rowOffset = 0;
+        this.colOffset = 0;
+        this.pixels = new int[width * height];
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                pixels[i * width + j] = pixelArray[i][j].getRGB();
+            }
+        }
+    }
+
+    /**
+     * Constructs an Image object from packed ARGB pixels.
+     * The array is used as is, without copying.
+     *
+     * @param pixels the packed ARGB pixels, row-major
+     * @param width  the width of the image
+     * @param height the height of the image
+     */
+    public Image(int[] pixels, int width, int height) {
+        this.pixels = pixels;
+        this.store = null;
+        this.width = width;
+        this.height = height;
+        this.source = null;
+        this.rowOffset = 0;
+        this.colOffset = 0;
+    }
+
+    /**
+     * Constructs a view over a window of another image, without copying any pixel.
+     * The window may extend past the other image, in which case those pixels are white.
+     * A view of a view is flattened into a view of the underlying image.
+     *
+     * @param source    the image to view
+     * @param rowOffset the row of the source image at row 0 of the view, may be negative
+     * @param colOffset the column of the source image at column 0 of the view, may be negative
+     * @param width     the width of the view
+     * @param height    the height of the view
+     */
+    Image(Image source, int rowOffset, int colOffset, int width, int height) {
+        this.pixels = null;
+        this.store = null;
+        this.source = source.source == null ? source : source.source;
+        this.rowOffset = rowOffset + source.rowOffset;
+        this.colOffset = colOffset + source.colOffset;
         this.width = width;
         this.height = height;
     }
@@ -73,29 +282,114 @@ public class Image {
 
     /**
      * Gets the Color of the pixel at the specified coordinates.
+     * Kept for compatibility, prefer {@link #getRGB(int, int)} in loops.
      *
      * @param x the x-coordinate of the pixel
      * @param y the y-coordinate of the pixel
      * @return the Color of the pixel at the specified coordinates
      */
     public Color getPixel(int x, int y) {
-        return pixelArray[x][y];
+        return new Color(getRGB(x, y));
+    }
+
+    /**
+     * Gets the packed ARGB value of the pixel at the specified coordinates.
+     *
+     * @param x the x-coordinate (row) of the pixel
+     * @param y the y-coordinate (column) of the pixel
+     * @return the packed ARGB value of the pixel
+     */
+    public int getRGB(int x, int y) {
+        if (pixels != null) {
+            return pixels[x * width + y];
+        }
+        if (store != null) {
+            return store.getRGB(x, y);
+        }
+        int sourceRow = x + rowOffset;
+        int sourceCol = y + colOffset;
+        if (sourceRow < 0 || sourceCol < 0 ||
+                sourceRow >= source.height || sourceCol >= source.width) {
+            return WHITE_RGB;
+        }
+        if (source.pixels == null) {
+            return source.store.getRGB(sourceRow, sourceCol);
+        }
+        return source.pixels[sourceRow * source.width + sourceCol];
+    }
+
+    /**
+     * Gets the scaled luminance of the pixel at the specified coordinates, as
+     * ImageUtils.getLuminance returns for its packed ARGB value. Pixels read from a store
+     * skip packing the pixel, so this is faster than getRGB when only brightness is needed.
+     *
+     * @param x the x-coordinate (row) of the pixel
+     * @param y the y-coordinate (column) of the pixel
+     * @return the scaled luminance of the pixel
+     */
+    public int getLuminance(int x, int y) {
+        if (pixels != null) {
+            return ImageUtils.getLuminance(pixels[x * width + y]);
+        }
+        if (store != null) {
+            return store.getLuminance(x, y);
+        }
+        int sourceRow = x + rowOffset;
+        int sourceCol = y + colOffset;
+        if (sourceRow < 0 || sourceCol < 0 ||
+                sourceRow >= source.height || sourceCol >= source.width) {
+            return ImageUtils.WHITE_LUMINANCE;
+        }
+        // The source of a view is never a view itself
+        return source.getLuminance(sourceRow, sourceCol);
     }
 
 
+    /**
+     * Returns a SHA-256 digest of the dimensions and pixels of the image, in hex.
+     * Two images with the same content have the same digest, even if they were loaded separately,
+     * so the digest can be used to recognize an image that was already processed. Unlike a
+     * plain hash, no image can be crafted to have the digest of another image.
+     * The digest is computed on first use and kept.
+     *
+     * @return the content digest of the image
+     */
+    public String getContentDigest() {
+        String digest = contentDigest;
+        if (digest == null) {
+            MessageDigest sha;
+            try {
+                sha = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e); // Every Java platform has SHA-256
+            }
+            // Digest one row at a time, big-endian, after the dimensions
+            ByteBuffer row = ByteBuffer.allocate(Math.max(2, width) * Integer.BYTES);
+            row.putInt(width).putInt(height);
+            sha.update(row.array(), 0, row.position());
+            for (int i = 0; i < height; i++) {
+                row.clear();
+                for (int j = 0; j < width; j++) {
+                    row.putInt(getRGB(i, j));
+                }
+                sha.update(row.array(), 0, row.position());
+            }
+            digest = HexFormat.of().formatHex(sha.digest());
+            contentDigest = digest;
+        }
+        return digest;
+    }
+
     /**
      * Saves the image to a file with the specified filename.
      *
      * @param fileName the name of the file to save the image to (without extension)
      */
     public void saveImage(String fileName) {
-        // Initialize BufferedImage, assuming Color[][] is already properly populated.
-        BufferedImage bufferedImage = new BufferedImage(pixelArray[0].length, pixelArray.length,
-                BufferedImage.TYPE_INT_RGB);
-        // Set each pixel of the BufferedImage to the color from the Color[][].
-        for (int x = 0; x < pixelArray.length; x++) {
-            for (int y = 0; y < pixelArray[x].length; y++) {
-                bufferedImage.setRGB(y, x, pixelArray[x][y].getRGB());
+        BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                bufferedImage.setRGB(j, i, getRGB(i, j));
             }
         }
         File outputfile = new File(fileName + ".jpeg");
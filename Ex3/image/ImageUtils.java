@@ -1,15 +1,24 @@
 package image;
 
-import java.awt.*;
-
 /**
  * Utility class for image processing operations.
  */
 public class ImageUtils {
-    private static final int WHITE_COLOR = 255;
+    // Luminance weights (0.2126, 0.7152, 0.0722) scaled to integers so sums are exact
+    private static final int RED_WEIGHT = 2126;
+    private static final int GREEN_WEIGHT = 7152;
+    private static final int BLUE_WEIGHT = 722;
+    private static final int MAX_CHANNEL = 255;
+    private static final int LUMA_SCALE = RED_WEIGHT + GREEN_WEIGHT + BLUE_WEIGHT;
+    private static final double MAX_LUMA = (double) MAX_CHANNEL * LUMA_SCALE;
+    /**
+     * The scaled luminance of a white pixel, as returned by getLuminance.
+     */
+    public static final int WHITE_LUMINANCE = getLuminance(0xFFFFFFFF);
 
     /**
      * Splits the given image into smaller images of the specified resolution size.
+     * The smaller images are views over the given image, so no pixel is copied.
      *
      * @param resolution The resolution size for the smaller images.
      * @param image      The original image to be split.
@@ -29,18 +38,9 @@ public class ImageUtils {
                 int startRow = i * smallerImageSize;
                 int startCol = j * smallerImageSize;
 
-                // Create the pixel array for the smaller image
-                Color[][] pixelArray = new Color[smallerImageSize][smallerImageSize];
-
-                // Copy pixel data from the original image to the smaller image
-                for (int k = 0; k < smallerImageSize; k++) {
-                    for (int l = 0; l < smallerImageSize; l++) {
-                        pixelArray[k][l] = image.getPixel(startRow + k, startCol + l);
-                    }
-                }
-
-                // Create the smaller image and store it in the array
-                imageAfterResolution[i][j] = new Image(pixelArray, smallerImageSize, smallerImageSize);
+                // Create a view of the square and store it in the array
+                imageAfterResolution[i][j] = new Image(image, startRow, startCol,
+                        smallerImageSize, smallerImageSize);
             }
         }
         return imageAfterResolution;
@@ -50,21 +50,75 @@ public class ImageUtils {
      * Calculates the brightness of the given image.
      *
      * @param image The image for which to calculate brightness.
-     * @return The brightness of the image, a value between 0 and 255.
+     * @return The brightness of the image, a value between 0 and 1.
      */
     public static double getImageBrightness(Image image) {
-        double result = 0;
+        long result = 0;
 
-        // Iterate over the pixels of the image and calculate brightness
+        // Iterate over the pixels of the image and sum their scaled luminance
         for (int i = 0; i < image.getHeight(); i++) {
             for (int j = 0; j < image.getWidth(); j++) {
-                result += image.getPixel(i, j).getRed() * 0.2126 +
-                        image.getPixel(i, j).getGreen() * 0.7152 +
-                        image.getPixel(i, j).getBlue() * 0.0722;
+                result += image.getLuminance(i, j);
             }
         }
-        // Normalize the result by the total number of pixels and scale to 0-255 range
-        return result / (image.getHeight() * image.getWidth() * 255);
+        // Normalize the result by the total number of pixels and scale to 0-1 range
+        return brightnessOfSum(result, (long) image.getHeight() * image.getWidth());
+    }
+
+    /**
+     * Calculates the scaled integer luminance of a single packed RGB pixel.
+     * The value is the weighted sum of the channels, multiplied by the weights scale,
+     * so that sums over many pixels stay exact.
+     *
+     * @param rgb The packed RGB value of the pixel.
+     * @return The scaled luminance of the pixel.
+     */
+    public static int getLuminance(int rgb) {
+        return ((rgb >> 16) & 0xFF) * RED_WEIGHT +
+                ((rgb >> 8) & 0xFF) * GREEN_WEIGHT +
+                (rgb & 0xFF) * BLUE_WEIGHT;
+    }
+
+    /**
+     * Calculates the scaled integer luminance of a pixel given by its channels, the same
+     * value getLuminance returns for the packed pixel.
+     *
+     * @param red   The red channel, between 0 and 255.
+     * @param green The green channel, between 0 and 255.
+     * @param blue  The blue channel, between 0 and 255.
+     * @return The scaled luminance of the pixel.
+     */
+    public static int getLuminance(int red, int green, int blue) {
+        return red * RED_WEIGHT + green * GREEN_WEIGHT + blue * BLUE_WEIGHT;
+    }
+
+    /**
+     * Converts a sum of scaled luminance values into an average brightness.
+     * Every brightness computation goes through this method, so the result does not depend
+     * on the order in which the pixels were summed.
+     *
+     * @param luminanceSum The sum of scaled luminance values, as returned by getLuminance.
+     * @param pixelCount   The number of pixels that were summed.
+     * @return The average brightness, a value between 0 and 1.
+     */
+    public static double brightnessOfSum(long luminanceSum, long pixelCount) {
+        return luminanceSum / (pixelCount * MAX_LUMA);
+    }
+
+    /**
+     * Calculates the number of rows of a grid of cells over the image, for the given number of
+     * columns, so that the art keeps the shape of the image once each cell is drawn as a
+     * character. Characters are taller than they are wide, so a cell covers a rectangle of the
+     * image that is taller than it is wide by the inverse of the cell aspect.
+     *
+     * @param image      The image the grid is laid over.
+     * @param cols       The number of cells in each row.
+     * @param cellAspect The width of a character cell divided by its height, such as 0.5.
+     * @return The number of cells in each column, between 1 and the height of the image.
+     */
+    public static int getGridRows(Image image, int cols, double cellAspect) {
+        long rows = Math.round((double) cols * image.getHeight() / image.getWidth() * cellAspect);
+        return (int) Math.max(1, Math.min(image.getHeight(), rows));
     }
 
     /**
@@ -72,7 +126,7 @@ public class ImageUtils {
      * @param number The number for which to find the closest power of 2.
      * @return The closest power of 2 greater than or equal to the given number.
      */
-    private static int closestPowerOfTwo(int number) {
+    public static int closestPowerOfTwo(int number) {
         // If the number is already a power of 2, return it
         if ((number & (number - 1)) == 0) {
             return number;
@@ -90,12 +144,30 @@ public class ImageUtils {
 
 
 
+    /**
+     * Checks whether an image of the given size can be divided into squares at the given
+     * resolution. The bounds are those the shell keeps the resolution within, at least
+     * width / height and at most width chars in a row, and every square of the padded image
+     * must also be at least one pixel, which a very wide image may not allow.
+     *
+     * @param width      The width of the image.
+     * @param height     The height of the image.
+     * @param resolution The number of squares in each row.
+     * @return Whether the resolution can be used for the image.
+     */
+    public static boolean isResolutionValid(int width, int height, int resolution) {
+        return resolution >= Math.max(1, width / height) && resolution <= width &&
+                resolution <= closestPowerOfTwo(height);
+    }
+
     /**
      * Adds padding to the image to make its dimensions powers of 2.
      * Padding is added symmetrically to maintain the center alignment of the original image.
+     * The padding is virtual: the returned image is a view over the original image that
+     * returns white outside of it, so no pixel is copied.
      *
      * @param image The original image to be padded.
-     * @return A new Image object with padded dimensions.
+     * @return An Image with padded dimensions, viewing the original image.
      */
     public static Image imagePadding(Image image) {
         // Retrieve dimensions of the original image
@@ -115,24 +187,9 @@ public class ImageUtils {
         int numOfPixelsAddedWidth = (widthAfterPadding - widthBeforePadding) / 2;
         int numOfPixelsAddedHeight = (heightAfterPadding - heightBeforePadding) / 2;
 
-        // Create a new pixel array with padded dimensions and fill it with white color
-        Color[][] pixelArray = new Color[heightAfterPadding][widthAfterPadding];
-        for (int i = 0; i < heightAfterPadding; i++) {
-            for (int j = 0; j < widthAfterPadding; j++) {
-                pixelArray[i][j] = new Color(WHITE_COLOR, WHITE_COLOR, WHITE_COLOR);
-            }
-        }
-  
-        // Copy the original image pixels to the padded area, maintaining center alignment
-        for (int i = 0; i < heightBeforePadding; i++) {
-            for (int j = 0; j < widthBeforePadding; j++) {
-                pixelArray[i + numOfPixelsAddedHeight][j + numOfPixelsAddedWidth] = image.getPixel(i, j);
-            }
-        }
-
-        // Create a new image with padded dimensions
-        return new Image(pixelArray, widthAfterPadding, heightAfterPadding);
+        // Create a view whose window starts before the original image, maintaining center alignment
+        return new Image(image, -numOfPixelsAddedHeight, -numOfPixelsAddedWidth,
+                widthAfterPadding, heightAfterPadding);
     }
 
 }
-
@@ -0,0 +1,256 @@
+package image;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Pixels read straight from a memory-mapped file of raw samples: a binary PPM (P6) or PGM
+ * (P5) file, or a headerless dump of 8-bit RGB triples. The file is never copied to the heap:
+ * every read decodes the samples of one pixel from the mapping, and the operating system pages
+ * the file in as it is read. Samples of up to 16 bits are scaled to 8 bits.
+ */
+final class MappedPixelStore implements PixelStore {
+    private static final int OPAQUE = 0xFF000000;
+    private static final int RED_SHIFT = 16;
+    private static final int GREEN_SHIFT = 8;
+    private static final int BYTE_MASK = 0xFF;
+    private static final int BYTE_BITS = 8;
+    private static final int MAX_SAMPLE = 255;
+    private static final int MAX_WIDE_SAMPLE = 65535;
+    private static final int GRAY_CHANNELS = 1;
+    private static final int RGB_CHANNELS = 3;
+    private static final byte MAGIC = 'P';
+    private static final byte PGM_TYPE = '5';
+    private static final byte PPM_TYPE = '6';
+    private static final int MAGIC_LENGTH = 2;
+    private static final int DECIMAL_BASE = 10;
+
+    private final MappedByteBuffer mapping; // The mapped file, read with absolute gets only
+    private final int offset; // Position of the first sample in the mapping
+    private final int width; // Width of the image
+    private final int height; // Height of the image
+    private final int channels; // Samples per pixel, 1 for gray or 3 for RGB
+    private final int sampleBytes; // Bytes per sample, 1 or 2 (big-endian)
+    private final int maxValue; // The sample value of full intensity
+
+    /**
+     * Creates a store over a mapping.
+     *
+     * @param mapping     the mapped file
+     * @param offset      the position of the first sample
+     * @param width       the width of the image
+     * @param height      the height of the image
+     * @param channels    the samples per pixel
+     * @param sampleBytes the bytes per sample
+     * @param maxValue    the sample value of full intensity
+     */
+    private MappedPixelStore(MappedByteBuffer mapping, int offset, int width, int height,
+                             int channels, int sampleBytes, int maxValue) {
+        this.mapping = mapping;
+        this.offset = offset;
+        this.width = width;
+        this.height = height;
+        this.channels = channels;
+        this.sampleBytes = sampleBytes;
+        this.maxValue = maxValue;
+    }
+
+    /**
+     * Checks whether a file starts like a binary PPM or PGM file.
+     *
+     * @param path the file
+     * @return whether the file is a binary PPM or PGM file
+     * @throws IOException if the file cannot be read
+     */
+    static boolean isPortableAnymap(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(MAGIC_LENGTH);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                // Keep reading until the magic is complete or the file ends
+            }
+            return magic.position() == MAGIC_LENGTH && magic.get(0) == MAGIC &&
+                    (magic.get(1) == PGM_TYPE || magic.get(1) == PPM_TYPE);
+        }
+    }
+
+    /**
+     * Maps a binary PPM (P6) or PGM (P5) file.
+     *
+     * @param path the file
+     * @return the store of its pixels
+     * @throws IOException if the file cannot be read, or is not a valid PPM or PGM file
+     */
+    static MappedPixelStore openPortableAnymap(Path path) throws IOException {
+        MappedByteBuffer mapping = map(path);
+        if (mapping.limit() < MAGIC_LENGTH || mapping.get(0) != MAGIC ||
+                (mapping.get(1) != PGM_TYPE && mapping.get(1) != PPM_TYPE)) {
+            throw new IOException("Not a binary PPM or PGM file: " + path);
+        }
+        int channels = mapping.get(1) == PPM_TYPE ? RGB_CHANNELS : GRAY_CHANNELS;
+        int[] position = {MAGIC_LENGTH};
+        int width = readHeaderNumber(mapping, position, path);
+        int height = readHeaderNumber(mapping, position, path);
+        int maxValue = readHeaderNumber(mapping, position, path);
+        if (width < 1 || height < 1 || maxValue < 1 || maxValue > MAX_WIDE_SAMPLE) {
+            throw new IOException("Invalid PPM or PGM header: " + path);
+        }
+        // A single whitespace byte separates the header from the samples
+        int offset = position[0] + 1;
+        int sampleBytes = maxValue > MAX_SAMPLE ? 2 : 1;
+        checkSize(mapping, offset, (long) width * height * channels * sampleBytes, path);
+        return new MappedPixelStore(mapping, offset, width, height, channels, sampleBytes, maxValue);
+    }
+
+    /**
+     * Maps a headerless file of 8-bit RGB triples, row by row.
+     *
+     * @param path   the file
+     * @param width  the width of the image
+     * @param height the height of the image
+     * @return the store of its pixels
+     * @throws IOException if the file cannot be read, or its size does not match the dimensions
+     */
+    static MappedPixelStore openRawRgb(Path path, int width, int height) throws IOException {
+        if (width < 1 || height < 1) {
+            throw new IOException("Invalid dimensions " + width + "x" + height + ": " + path);
+        }
+        MappedByteBuffer mapping = map(path);
+        long expected = (long) width * height * RGB_CHANNELS;
+        if (mapping.limit() != expected) {
+            throw new IOException(String.format("Expected %d bytes of RGB for %dx%d, found %d: %s",
+                    expected, width, height, mapping.limit(), path));
+        }
+        return new MappedPixelStore(mapping, 0, width, height, RGB_CHANNELS, 1, MAX_SAMPLE);
+    }
+
+    /**
+     * Returns the width of the image.
+     *
+     * @return the width of the image
+     */
+    int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the height of the image.
+     *
+     * @return the height of the image
+     */
+    int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getRGB(int row, int col) {
+        int index = offset + (row * width + col) * channels * sampleBytes;
+        if (sampleBytes == 1 && maxValue == MAX_SAMPLE) {
+            if (channels == GRAY_CHANNELS) {
+                int gray = mapping.get(index) & BYTE_MASK;
+                return OPAQUE | (gray << RED_SHIFT) | (gray << GREEN_SHIFT) | gray;
+            }
+            return OPAQUE | ((mapping.get(index) & BYTE_MASK) << RED_SHIFT) |
+                    ((mapping.get(index + 1) & BYTE_MASK) << GREEN_SHIFT) |
+                    (mapping.get(index + 2) & BYTE_MASK);
+        }
+        if (channels == GRAY_CHANNELS) {
+            int gray = sample(index);
+            return OPAQUE | (gray << RED_SHIFT) | (gray << GREEN_SHIFT) | gray;
+        }
+        return OPAQUE | (sample(index) << RED_SHIFT) | (sample(index + sampleBytes) << GREEN_SHIFT) |
+                sample(index + 2 * sampleBytes);
+    }
+
+    /**
+     * Reads one sample and scales it to 8 bits, rounding to the nearest value.
+     *
+     * @param index the position of the sample in the mapping
+     * @return the sample, between 0 and 255
+     */
+    private int sample(int index) {
+        int value = mapping.get(index) & BYTE_MASK;
+        if (sampleBytes == 2) {
+            value = (value << BYTE_BITS) | (mapping.get(index + 1) & BYTE_MASK);
+        }
+        value = Math.min(value, maxValue);
+        return (value * MAX_SAMPLE + maxValue / 2) / maxValue;
+    }
+
+    /**
+     * Maps a whole file for reading. The mapping stays valid after the channel is closed.
+     *
+     * @param path the file
+     * @return the mapping
+     * @throws IOException if the file cannot be read or is too large to map at once
+     */
+    private static MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large to map: " + path);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    /**
+     * Reads a decimal number of a PPM or PGM header, skipping the whitespace and comments
+     * before it.
+     *
+     * @param mapping  the mapped file
+     * @param position the position to read from, advanced past the number
+     * @param path     the file, for the error message
+     * @return the number
+     * @throws IOException if the header ends or holds something else
+     */
+    private static int readHeaderNumber(MappedByteBuffer mapping, int[] position, Path path)
+            throws IOException {
+        int i = position[0];
+        while (i < mapping.limit()) {
+            byte b = mapping.get(i);
+            if (b == '#') {
+                while (i < mapping.limit() && mapping.get(i) != '\n' && mapping.get(i) != '\r') {
+                    i++;
+                }
+            } else if (Character.isWhitespace(b)) {
+                i++;
+            } else {
+                break;
+            }
+        }
+        long value = 0;
+        int start = i;
+        while (i < mapping.limit() && mapping.get(i) >= '0' && mapping.get(i) <= '9') {
+            value = value * DECIMAL_BASE + (mapping.get(i) - '0');
+            if (value > Integer.MAX_VALUE) {
+                throw new IOException("Invalid PPM or PGM header: " + path);
+            }
+            i++;
+        }
+        if (i == start) {
+            throw new IOException("Invalid PPM or PGM header: " + path);
+        }
+        position[0] = i;
+        return (int) value;
+    }
+
+    /**
+     * Checks that the mapping holds all the samples of the image.
+     *
+     * @param mapping the mapped file
+     * @param offset  the position of the first sample
+     * @param bytes   the number of bytes of samples
+     * @param path    the file, for the error message
+     * @throws IOException if the file is too short
+     */
+    private static void checkSize(MappedByteBuffer mapping, int offset, long bytes, Path path)
+            throws IOException {
+        if (offset + bytes > mapping.limit()) {
+            throw new IOException("Truncated PPM or PGM file: " + path);
+        }
+    }
+}
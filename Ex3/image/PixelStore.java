@@ -0,0 +1,28 @@
+package image;
+
+/**
+ * Pixels of an image that are not held in a packed int array, for example pixels read
+ * straight from a memory-mapped file. Reads must be safe from several threads at once.
+ */
+interface PixelStore {
+    /**
+     * Returns the packed ARGB value of a pixel.
+     *
+     * @param row the row of the pixel
+     * @param col the column of the pixel
+     * @return the packed ARGB value of the pixel
+     */
+    int getRGB(int row, int col);
+
+    /**
+     * Returns the scaled luminance of a pixel, as ImageUtils.getLuminance returns for its
+     * packed ARGB value. Stores that can compute it without packing the pixel override this.
+     *
+     * @param row the row of the pixel
+     * @param col the column of the pixel
+     * @return the scaled luminance of the pixel
+     */
+    default int getLuminance(int row, int col) {
+        return ImageUtils.getLuminance(getRGB(row, col));
+    }
+}
@@ -0,0 +1,186 @@
+package image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * Pixels read straight from the raster of a decoded image, without converting them to packed
+ * ARGB ints first. The samples stay in the byte or int array the decoder wrote them to, so a
+ * decoded color image costs 3 or 4 bytes per pixel and a gray image 1 byte per pixel.
+ * The luminance of a pixel is computed from its samples directly, which is all the brightness
+ * table reads when no color is asked for. Gray samples are looked up in tables built from the
+ * color model of the image, so they give exactly what BufferedImage.getRGB would.
+ */
+final class RasterPixelStore implements PixelStore {
+    private static final int OPAQUE = 0xFF000000;
+    private static final int ALPHA_SHIFT = 24;
+    private static final int RED_SHIFT = 16;
+    private static final int GREEN_SHIFT = 8;
+    private static final int BYTE_MASK = 0xFF;
+    private static final int GRAY_LEVELS = 256;
+    // Index of each component in the band offsets of the byte layouts
+    private static final int RED_BAND = 0;
+    private static final int GREEN_BAND = 1;
+    private static final int BLUE_BAND = 2;
+    private static final int ALPHA_BAND = 3;
+
+    private final byte[] bytes; // The samples of a byte layout, null for an int layout
+    private final int[] ints; // The pixels of an int layout, null for a byte layout
+    private final int offset; // Index of the first sample of the image in the array
+    private final int scanlineStride; // Array elements from a pixel to the one below it
+    private final int pixelStride; // Array elements from a pixel to the one right of it
+    private final int redOffset; // Offset of the red sample in a pixel of a byte layout
+    private final int greenOffset; // Offset of the green sample in a pixel of a byte layout
+    private final int blueOffset; // Offset of the blue sample in a pixel of a byte layout
+    private final int alphaOffset; // Offset of the alpha sample, -1 if the pixels are opaque
+    private final int[] grayRGB; // Packed ARGB of each gray level, null unless the image is gray
+    private final int[] grayLuminance; // Scaled luminance of each gray level, null unless gray
+
+    /**
+     * Creates a store over the samples of a raster.
+     *
+     * @param bytes          the samples of a byte layout, or null
+     * @param ints           the pixels of an int layout, or null
+     * @param offset         the index of the first sample of the image
+     * @param scanlineStride the array elements from a pixel to the one below it
+     * @param pixelStride    the array elements from a pixel to the one right of it
+     * @param bandOffsets    the offsets of the red, green, blue and alpha samples of a byte
+     *                       layout, as many as there are bands, or null
+     * @param grayRGB        the packed ARGB of each gray level, or null
+     */
+    private RasterPixelStore(byte[] bytes, int[] ints, int offset, int scanlineStride, int pixelStride,
+                             int[] bandOffsets, int[] grayRGB) {
+        this.bytes = bytes;
+        this.ints = ints;
+        this.offset = offset;
+        this.scanlineStride = scanlineStride;
+        this.pixelStride = pixelStride;
+        boolean color = bandOffsets != null && bandOffsets.length > BLUE_BAND;
+        this.redOffset = color ? bandOffsets[RED_BAND] : 0;
+        this.greenOffset = color ? bandOffsets[GREEN_BAND] : 0;
+        this.blueOffset = color ? bandOffsets[BLUE_BAND] : 0;
+        this.alphaOffset = bandOffsets != null && bandOffsets.length > ALPHA_BAND ? bandOffsets[ALPHA_BAND] : -1;
+        this.grayRGB = grayRGB;
+        if (grayRGB == null) {
+            this.grayLuminance = null;
+        } else {
+            this.grayLuminance = new int[GRAY_LEVELS];
+            for (int level = 0; level < GRAY_LEVELS; level++) {
+                grayLuminance[level] = ImageUtils.getLuminance(grayRGB[level]);
+            }
+        }
+    }
+
+    /**
+     * Creates a store over the raster of a decoded image, sharing its arrays.
+     * Only the layouts decoders produce are supported: 8-bit gray, 3-byte BGR, 4-byte ABGR,
+     * and packed RGB or ARGB ints, with the raster covering its whole data buffer.
+     *
+     * @param im the decoded image, which must not be changed afterwards
+     * @return the store of its pixels, or null if its layout is not supported
+     */
+    static RasterPixelStore wrap(BufferedImage im) {
+        Raster raster = im.getRaster();
+        if (raster.getParent() != null || raster.getSampleModelTranslateX() != 0 ||
+                raster.getSampleModelTranslateY() != 0) {
+            return null;
+        }
+        switch (im.getType()) {
+            case BufferedImage.TYPE_BYTE_GRAY:
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR:
+                return wrapBytes(im, raster);
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+                return wrapInts(im, raster);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Creates a store over a raster of interleaved byte samples.
+     *
+     * @param im     the decoded image
+     * @param raster its raster
+     * @return the store of its pixels, or null if its layout is not supported
+     */
+    private static RasterPixelStore wrapBytes(BufferedImage im, Raster raster) {
+        if (!(raster.getSampleModel() instanceof ComponentSampleModel) ||
+                !(raster.getDataBuffer() instanceof DataBufferByte)) {
+            return null;
+        }
+        ComponentSampleModel model = (ComponentSampleModel) raster.getSampleModel();
+        DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+        if (buffer.getNumBanks() != 1) {
+            return null;
+        }
+        int[] grayRGB = null;
+        if (im.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            // The gray color space is linear, so ask the color model what each level looks like
+            ColorModel colorModel = im.getColorModel();
+            grayRGB = new int[GRAY_LEVELS];
+            for (int level = 0; level < GRAY_LEVELS; level++) {
+                grayRGB[level] = colorModel.getRGB(new byte[]{(byte) level});
+            }
+        }
+        // The band offsets of BGR and ABGR are in RGB(A) order of the color model
+        return new RasterPixelStore(buffer.getData(), null, buffer.getOffset(),
+                model.getScanlineStride(), model.getPixelStride(), model.getBandOffsets(), grayRGB);
+    }
+
+    /**
+     * Creates a store over a raster of packed int pixels.
+     *
+     * @param im     the decoded image
+     * @param raster its raster
+     * @return the store of its pixels, or null if its layout is not supported
+     */
+    private static RasterPixelStore wrapInts(BufferedImage im, Raster raster) {
+        if (!(raster.getSampleModel() instanceof SinglePixelPackedSampleModel) ||
+                !(raster.getDataBuffer() instanceof DataBufferInt)) {
+            return null;
+        }
+        SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) raster.getSampleModel();
+        DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+        if (buffer.getNumBanks() != 1) {
+            return null;
+        }
+        int[] bandOffsets = im.getType() == BufferedImage.TYPE_INT_ARGB ? new int[ALPHA_BAND + 1] : null;
+        return new RasterPixelStore(null, buffer.getData(), buffer.getOffset(),
+                model.getScanlineStride(), 1, bandOffsets, null);
+    }
+
+    @Override
+    public int getRGB(int row, int col) {
+        int index = offset + row * scanlineStride + col * pixelStride;
+        if (ints != null) {
+            return alphaOffset < 0 ? OPAQUE | ints[index] : ints[index];
+        }
+        if (grayRGB != null) {
+            return grayRGB[bytes[index] & BYTE_MASK];
+        }
+        int alpha = alphaOffset < 0 ? OPAQUE : (bytes[index + alphaOffset] & BYTE_MASK) << ALPHA_SHIFT;
+        return alpha | ((bytes[index + redOffset] & BYTE_MASK) << RED_SHIFT) |
+                ((bytes[index + greenOffset] & BYTE_MASK) << GREEN_SHIFT) |
+                (bytes[index + blueOffset] & BYTE_MASK);
+    }
+
+    @Override
+    public int getLuminance(int row, int col) {
+        int index = offset + row * scanlineStride + col * pixelStride;
+        if (ints != null) {
+            return ImageUtils.getLuminance(ints[index]);
+        }
+        if (grayLuminance != null) {
+            return grayLuminance[bytes[index] & BYTE_MASK];
+        }
+        return ImageUtils.getLuminance(bytes[index + redOffset] & BYTE_MASK,
+                bytes[index + greenOffset] & BYTE_MASK, bytes[index + blueOffset] & BYTE_MASK);
+    }
+}
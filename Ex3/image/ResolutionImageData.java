@@ -1,21 +1,71 @@
 package image;
 
-import java.util.HashMap;
+import java.lang.ref.SoftReference;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 /**
  * The ResolutionImageData class stores processed image data for different image resolutions.
- * It maps Image objects to their corresponding processed data represented as double arrays.
+ * Images are identified by a SHA-256 digest of their content, so the cache never keeps an Image
+ * alive, reloading the same file finds the data of the earlier load, and an image crafted to
+ * collide with another one cannot be given its data.
+ * The cache holds the brightness table of each image and the brightness values of each
+ * image at each resolution, within a byte budget. When the budget is exceeded the least
+ * recently used entries are evicted. Entries are also held through soft references,
+ * so the garbage collector can reclaim them under memory pressure.
+ * The cache is safe for concurrent use without a global lock: the singleton is published
+ * through a holder class, entries live in a concurrent map, and each value is computed
+ * only once even if several threads ask for it at the same time.
  */
 public class ResolutionImageData {
-    private static ResolutionImageData resolutionImageData; // Singleton instance
-    // HashMap to store processed image data
-    private final HashMap<Tuple<Image, Integer>, double[][]> imageData;
+    private static final long DEFAULT_BYTE_BUDGET = 256L * 1024 * 1024;
+    private static final long TABLE_RESOLUTION = 0; // Key resolution under which the table is stored
+    private static final long COLOR_TABLE_RESOLUTION = -1; // Key resolution of the table with color
+    // Map from (content digest, resolution) to a cached value. A grid of columns x rows is stored
+    // under the negative resolution -(columns << 32 | rows), below the keys of the tables
+    private final ConcurrentHashMap<Tuple<String, Long>, CacheEntry> imageData;
+    private final AtomicLong accessClock; // Logical time of the last access, for LRU eviction
+    private final AtomicLong usedBytes; // Number of bytes currently held by the cache
+    private final AtomicBoolean evicting; // Whether a thread is currently evicting entries
+    private final LongAdder hits; // Number of lookups that found their value
+    private final LongAdder misses; // Number of lookups that did not find their value
+    private final LongAdder evictions; // Number of entries evicted or reclaimed by the garbage collector
+    private volatile long byteBudget; // Maximum number of bytes held by the cache
+
+    /**
+     * Holds the singleton instance, which is created when the holder class is first used.
+     */
+    private static class Holder {
+        private static final ResolutionImageData INSTANCE = new ResolutionImageData();
+    }
+
+    /**
+     * A cached value, held softly once computed, together with its size and last access time.
+     */
+    private static class CacheEntry {
+        private final CompletableFuture<SoftReference<Object>> value = new CompletableFuture<>();
+        private volatile long bytes; // Size of the value, 0 until it is computed
+        private volatile long lastAccess;
+    }
 
     /**
      * Constructs a new ResolutionImageData object.
      */
     private ResolutionImageData() {
-        imageData = new HashMap<>();
+        imageData = new ConcurrentHashMap<>();
+        accessClock = new AtomicLong();
+        usedBytes = new AtomicLong();
+        evicting = new AtomicBoolean();
+        hits = new LongAdder();
+        misses = new LongAdder();
+        evictions = new LongAdder();
+        byteBudget = DEFAULT_BYTE_BUDGET;
     }
 
     /**
@@ -24,11 +74,7 @@ public class ResolutionImageData {
      * @return The singleton instance of ResolutionImageData.
      */
     public static ResolutionImageData getInstance() {
-        if (resolutionImageData != null) {
-            return resolutionImageData;
-        }
-        resolutionImageData = new ResolutionImageData();
-        return resolutionImageData;
+        return Holder.INSTANCE;
     }
 
     /**
@@ -39,12 +85,7 @@ public class ResolutionImageData {
      * @param processImage The processed image data represented as a double array.
      */
     public void addNewData(Image image, int resolution, double[][] processImage) {
-        Tuple<Image, Integer> newTup = new Tuple<Image, Integer>(image, resolution);
-        // Check if the image already exists in the map
-        if (!imageData.containsKey(newTup)) {
-            // If not, add the image along with its corresponding processed data
-            imageData.put(newTup, processImage);
-        }
+        getOrComputeProcessImage(image, resolution, () -> processImage);
     }
 
     /**
@@ -55,13 +96,284 @@ public class ResolutionImageData {
      *         or null if the image is not found in the map.
      */
     public double[][] getProcessImage(Image image, int resolution) {
-        Tuple<Image, Integer> newTup = new Tuple<Image, Integer>(image, resolution);
-        // Check if the image exists in the map
-        if (imageData.containsKey(newTup)) {
-            // If yes, return the processed image data associated with the image
-            return imageData.get(newTup);
+        Tuple<String, Long> newTup = new Tuple<String, Long>(image.getContentDigest(), (long) resolution);
+        CacheEntry entry = imageData.get(newTup);
+        Object value = entry == null || !entry.value.isDone() ? null : getValue(newTup, entry);
+        if (value == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return (double[][]) value;
+    }
+
+    /**
+     * Retrieves the processed image data for a given image, computing and storing it if it is
+     * not in the cache. If several threads ask for the same uncached data, one of them computes
+     * it and the others wait for it.
+     *
+     * @param image      The Image object.
+     * @param resolution The resolution of the processed data.
+     * @param compute    Computes the processed data if it is not in the cache.
+     * @return The processed image data represented as a double array.
+     */
+    public double[][] getOrComputeProcessImage(Image image, int resolution,
+                                               Supplier<double[][]> compute) {
+        return getOrComputeProcessImage(new Tuple<String, Long>(image.getContentDigest(), (long) resolution), compute);
+    }
+
+    /**
+     * Retrieves the brightness of every cell of a grid laid over a given image, computing and
+     * storing it if it is not in the cache, as getOrComputeProcessImage does for a resolution.
+     *
+     * @param image   The Image object.
+     * @param cols    The number of cells in each row of the grid.
+     * @param rows    The number of cells in each column of the grid.
+     * @param compute Computes the brightness of the cells if it is not in the cache.
+     * @return The brightness of the cells, rows x cols.
+     */
+    public double[][] getOrComputeGridImage(Image image, int cols, int rows, Supplier<double[][]> compute) {
+        long gridKey = -(((long) cols << Integer.SIZE) | rows);
+        return getOrComputeProcessImage(new Tuple<String, Long>(image.getContentDigest(), gridKey), compute);
+    }
+
+    /**
+     * Retrieves processed image data under a key, computing and storing it if it is missing.
+     *
+     * @param key     The content digest and resolution key of the data.
+     * @param compute Computes the processed data if it is not in the cache.
+     * @return The processed image data represented as a double array.
+     */
+    private double[][] getOrComputeProcessImage(Tuple<String, Long> key, Supplier<double[][]> compute) {
+        return (double[][]) getOrCompute(key, compute::get, value -> {
+            double[][] processImage = (double[][]) value;
+            return processImage.length == 0 ? 0 :
+                    (long) processImage.length * processImage[0].length * Double.BYTES;
+        });
+    }
+
+    /**
+     * Retrieves the brightness table of a given image, building it on first use.
+     * The table accounts for the padding of the image, so every resolution of the image
+     * can be computed from it without padding or splitting the image.
+     *
+     * @param image The Image object, before padding.
+     * @param pool  The pool to build the table on, or null to build it on the calling thread.
+     * @return The brightness table of the image.
+     */
+    public BrightnessTable getBrightnessTable(Image image, ForkJoinPool pool) {
+        return getBrightnessTable(image, pool, false);
+    }
+
+    /**
+     * Retrieves the brightness table of a given image, optionally with the color channels,
+     * building it on first use. A table with color also serves requests for the brightness
+     * table alone, so in color mode the pixels are only scanned once.
+     *
+     * @param image     The Image object, before padding.
+     * @param pool      The pool to build the table on, or null to build it on the calling thread.
+     * @param withColor Whether the table must also sum the color channels.
+     * @return The brightness table of the image.
+     */
+    public BrightnessTable getBrightnessTable(Image image, ForkJoinPool pool, boolean withColor) {
+        Tuple<String, Long> colorTup = new Tuple<String, Long>(image.getContentDigest(), COLOR_TABLE_RESOLUTION);
+        if (!withColor) {
+            CacheEntry colorEntry = imageData.get(colorTup);
+            Object value = colorEntry == null || !colorEntry.value.isDone() ? null : getValue(colorTup, colorEntry);
+            if (value != null) {
+                hits.increment();
+                return (BrightnessTable) value;
+            }
+        }
+        Tuple<String, Long> newTup = withColor ? colorTup :
+                new Tuple<String, Long>(image.getContentDigest(), TABLE_RESOLUTION);
+        return (BrightnessTable) getOrCompute(newTup, () -> new BrightnessTable(image, pool, withColor),
+                value -> ((BrightnessTable) value).getEntries() * Long.BYTES);
+    }
+
+    /**
+     * Sets the maximum number of bytes held by the cache, evicting entries if needed.
+     *
+     * @param byteBudget The byte budget of the cache.
+     */
+    public void setByteBudget(long byteBudget) {
+        this.byteBudget = byteBudget;
+        evict();
+    }
+
+    /**
+     * Returns the maximum number of bytes held by the cache.
+     *
+     * @return The byte budget of the cache.
+     */
+    public long getByteBudget() {
+        return byteBudget;
+    }
+
+    /**
+     * Returns the number of bytes currently held by the cache.
+     *
+     * @return The number of used bytes.
+     */
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    /**
+     * Adds up the sizes of the entries currently in the cache. Once no thread is using the
+     * cache, this equals the used bytes.
+     *
+     * @return The number of bytes of the entries in the cache.
+     */
+    long getLiveBytes() {
+        long bytes = 0;
+        for (CacheEntry entry : imageData.values()) {
+            bytes += entry.bytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the number of lookups that found their value.
+     *
+     * @return The number of cache hits.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups that did not find their value.
+     *
+     * @return The number of cache misses.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of entries evicted for the byte budget or reclaimed by the
+     * garbage collector.
+     *
+     * @return The number of evictions.
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Size of a cached value in bytes.
+     */
+    private interface SizeOf {
+        long bytes(Object value);
+    }
+
+    /**
+     * Looks up a cached value, computing it exactly once if it is missing.
+     * A value larger than the whole budget is computed but not kept.
+     *
+     * @param key     The key of the value.
+     * @param compute Computes the value if it is not in the cache.
+     * @param sizeOf  Gives the approximate size of the value in bytes.
+     * @return The value.
+     */
+    private Object getOrCompute(Tuple<String, Long> key, Supplier<Object> compute, SizeOf sizeOf) {
+        while (true) {
+            CacheEntry entry = imageData.get(key);
+            if (entry != null) {
+                Object value = getValue(key, entry);
+                if (value != null) {
+                    hits.increment();
+                    return value;
+                }
+                continue; // The value was reclaimed and its entry removed, compute it again
+            }
+            CacheEntry created = new CacheEntry();
+            if (imageData.putIfAbsent(key, created) != null) {
+                continue; // Another thread is computing the value, wait for it
+            }
+            misses.increment();
+            Object value;
+            try {
+                value = compute.get();
+            } catch (RuntimeException e) {
+                imageData.remove(key, created);
+                created.value.completeExceptionally(e);
+                throw e;
+            }
+            long bytes = sizeOf.bytes(value);
+            created.lastAccess = accessClock.incrementAndGet();
+            // Account for the entry before completing it: only completed entries can be
+            // removed, so a removal always subtracts the bytes that were added
+            if (bytes > byteBudget) {
+                imageData.remove(key, created);
+            } else {
+                created.bytes = bytes;
+                usedBytes.addAndGet(bytes);
+            }
+            created.value.complete(new SoftReference<>(value));
+            evict();
+            return value;
+        }
+    }
+
+    /**
+     * Returns the value of an entry, waiting for it if it is still being computed.
+     * If the value was reclaimed by the garbage collector, the entry is removed.
+     *
+     * @param key   The key of the entry.
+     * @param entry The entry.
+     * @return The value, or null if it was reclaimed.
+     */
+    private Object getValue(Tuple<String, Long> key, CacheEntry entry) {
+        Object value = entry.value.join().get();
+        if (value == null) {
+            remove(key, entry);
+            return null;
+        }
+        entry.lastAccess = accessClock.incrementAndGet();
+        return value;
+    }
+
+    /**
+     * Evicts least recently used entries until the cache fits its byte budget.
+     * Only one thread evicts at a time; others skip eviction instead of waiting. The evicting
+     * thread checks the budget again after it stops evicting, so bytes added by a thread that
+     * skipped eviction meanwhile are still evicted.
+     */
+    private void evict() {
+        while (usedBytes.get() > byteBudget && evicting.compareAndSet(false, true)) {
+            try {
+                while (usedBytes.get() > byteBudget) {
+                    Map.Entry<Tuple<String, Long>, CacheEntry> eldest = null;
+                    for (Map.Entry<Tuple<String, Long>, CacheEntry> entry : imageData.entrySet()) {
+                        CacheEntry value = entry.getValue();
+                        if (value.value.isDone() && (eldest == null ||
+                                value.lastAccess < eldest.getValue().lastAccess)) {
+                            eldest = entry;
+                        }
+                    }
+                    if (eldest == null) {
+                        return; // Every entry is still being computed, and is evicted once added
+                    }
+                    remove(eldest.getKey(), eldest.getValue());
+                }
+            } finally {
+                evicting.set(false);
+            }
+        }
+    }
+
+    /**
+     * Removes an entry from the cache, if it is still there.
+     *
+     * @param key   The key of the entry.
+     * @param entry The entry to remove.
+     */
+    private void remove(Tuple<String, Long> key, CacheEntry entry) {
+        if (imageData.remove(key, entry)) {
+            usedBytes.addAndGet(-entry.bytes);
+            evictions.increment();
         }
-        // If the image is not found, return null
-        return null;
     }
 }
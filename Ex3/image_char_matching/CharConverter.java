@@ -19,13 +19,23 @@ public class CharConverter {
      * the default value of pixel resolution.
      */
     public static final int DEFAULT_PIXEL_RESOLUTION = 16;
+    // The font glyphs are actually rendered with, which is a fallback font if FONT_NAME is missing
+    private static final String RESOLVED_FONT_NAME =
+            new Font(FONT_NAME, Font.PLAIN, DEFAULT_PIXEL_RESOLUTION).getFontName();
 
     /**
      * Renders a given character, according to how it looks in the font specified in the
      * constructor, to a square black&white image (2D array of booleans),
      * whose dimension in pixels is specified.
+     * Rendered glyphs are kept in a persistent on-disk cache, so each glyph is only
+     * rendered with AWT once across runs.
      */
     public static boolean[][] convertToBoolArray(char c) {
+        GlyphCache cache = GlyphCache.getInstance(RESOLVED_FONT_NAME, DEFAULT_PIXEL_RESOLUTION);
+        boolean[][] cached = cache.read(c);
+        if (cached != null) {
+            return cached;
+        }
         BufferedImage img = getBufferedImage(c, FONT_NAME, DEFAULT_PIXEL_RESOLUTION);
         boolean[][] matrix = new boolean[DEFAULT_PIXEL_RESOLUTION][DEFAULT_PIXEL_RESOLUTION];
         for(int y = 0 ; y < DEFAULT_PIXEL_RESOLUTION ; y++) {
@@ -33,6 +43,7 @@ public class CharConverter {
                 matrix[y][x] = img.getRGB(x, y) == 0; //is the color black
             }
         }
+        cache.write(c, matrix);
         return matrix;
     }
     /**
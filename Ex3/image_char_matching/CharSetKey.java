@@ -0,0 +1,73 @@
+package image_char_matching;
+
+import java.util.BitSet;
+
+/**
+ * An immutable, canonical value of a set of characters.
+ * Two keys are equal if and only if they hold the same characters, regardless of
+ * the order or duplicates of the arrays they were built from, so they can be used
+ * as keys of a charset cache.
+ */
+public final class CharSetKey {
+    private final BitSet codePoints; // Bit c is set if and only if the character c is in the set
+    private final int hash; // The hash code, computed once
+
+    /**
+     * Constructs a key holding the given characters.
+     *
+     * @param charset The characters of the set, in any order.
+     */
+    public CharSetKey(char[] charset) {
+        codePoints = new BitSet();
+        for (char c : charset) {
+            codePoints.set(c);
+        }
+        hash = codePoints.hashCode();
+    }
+
+    /**
+     * Returns the number of characters in the set.
+     *
+     * @return the number of characters
+     */
+    public int size() {
+        return codePoints.cardinality();
+    }
+
+    /**
+     * Returns the characters of the set, in ascending order.
+     *
+     * @return a new array holding the characters
+     */
+    public char[] toCharArray() {
+        char[] chars = new char[size()];
+        int index = 0;
+        for (int c = codePoints.nextSetBit(0); c >= 0; c = codePoints.nextSetBit(c + 1)) {
+            chars[index++] = (char) c;
+        }
+        return chars;
+    }
+
+    /**
+     * Indicates whether some other object is a key holding the same characters.
+     *
+     * @param o the reference object with which to compare
+     * @return true if both keys hold the same characters; false otherwise
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return codePoints.equals(((CharSetKey) o).codePoints);
+    }
+
+    /**
+     * Returns a hash code value for the key, based on its characters only.
+     *
+     * @return a hash code value for this key
+     */
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
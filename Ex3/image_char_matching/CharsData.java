@@ -1,27 +1,57 @@
 package image_char_matching;
 
-import java.util.HashMap;
-import java.util.PriorityQueue;
-import java.util.TreeMap;
+import image.Tuple;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * The CharsData class stores character data for character matching.
- * It maps sets of characters to their corresponding brightness values.
+ * It keeps the initial brightness of every character, and a bounded cache of matchers
+ * keyed by the canonical value of their charset and the size of their lookup table,
+ * evicting the least recently used one.
+ * The class is safe for concurrent use without a global lock: the singleton is published
+ * through a holder class, the data lives in concurrent maps, and the brightness of a
+ * character or the matcher of a charset is computed only once, even if several threads
+ * ask for it at the same time.
  */
 public class CharsData {
-    private static CharsData charsData; // Singleton instance
-    private final HashMap<char[], TreeMap<Double, PriorityQueue<Character>>> allCharsData;
-    private final TreeMap<Character, Double> charAndInitBrightness;
+    private static final int MAX_CACHED_CHARSETS = 16;
+    // a map from a charset and its lookup table buckets to its matcher, computed once per key
+    private final ConcurrentHashMap<Tuple<CharSetKey, Integer>, CachedMatcher> matchers;
     // a map that maps a char to its brightness
-    private final HashMap<char[], Double[]> charsSetMinMax;
+    private final ConcurrentHashMap<Character, Double> charAndInitBrightness;
+    private final AtomicLong accessClock; // Logical time of the last access, for LRU eviction
+    private final LongAdder cacheHits; // Number of matchers returned from the cache
+    private final LongAdder cacheMisses; // Number of matchers that had to be built
+
+    /**
+     * Holds the singleton instance, which is created when the holder class is first used.
+     */
+    private static class Holder {
+        private static final CharsData INSTANCE = new CharsData();
+    }
+
+    /**
+     * A matcher in the cache, together with the time it was last used.
+     */
+    private static class CachedMatcher {
+        private final CompletableFuture<SubImgCharMatcher> matcher = new CompletableFuture<>();
+        private volatile long lastAccess;
+    }
 
     /**
      * Constructs a new CharsData object.
      */
     private CharsData() {
-        charAndInitBrightness = new TreeMap<>();
-        allCharsData = new HashMap<>();
-        charsSetMinMax = new HashMap<>();
+        charAndInitBrightness = new ConcurrentHashMap<>();
+        matchers = new ConcurrentHashMap<>();
+        accessClock = new AtomicLong();
+        cacheHits = new LongAdder();
+        cacheMisses = new LongAdder();
     }
 
     /**
@@ -30,74 +60,116 @@ public class CharsData {
      * @return The singleton instance of CharsData.
      */
     public static CharsData getInstance() {
-        if (charsData != null) {
-            return charsData;
-        }
-        charsData = new CharsData();
-        return charsData;
+        return Holder.INSTANCE;
     }
 
     /**
-     * Adds new character data for a character set.
-     * If the character set already exists, it will not be overridden.
+     * Retrieves the matcher of a character set, building it only if the same set of
+     * characters is not in the cache. If several threads ask for the same uncached set,
+     * one of them builds the matcher and the others wait for it.
+     * The returned matcher is shared and read-only: adding or removing characters, or changing
+     * its lookup table, throws UnsupportedOperationException. Callers that need to change it
+     * copy it with the copy constructor of SubImgCharMatcher.
      *
-     * @param charsSet     The set of characters.
-     * @param charsValues  The TreeMap containing brightness values mapped to characters.
-     * @param minAndMax    The array containing the minimum and maximum brightness values
-     *                    for the character set.
+     * @param charsSet The set of characters, in any order.
+     * @return The matcher of the character set, which matches exactly.
      */
-    public void addNewCharsaddSet(char[] charsSet, TreeMap<Double,
-            PriorityQueue<Character>> charsValues,
-                               Double[] minAndMax) {
-        // Check if the character set already exists
-        if (!allCharsData.containsKey(charsSet)) {
-            // If not, add the character set along with its corresponding brightness values
-            allCharsData.put(charsSet, charsValues);
-            charsSetMinMax.put(charsSet, minAndMax);
-        }
+    public SubImgCharMatcher getMatcher(char[] charsSet) {
+        return getMatcher(charsSet, 0);
     }
 
     /**
-     * Retrieves the brightness values for a given character set.
+     * Retrieves the matcher of a character set with a lookup table of the given number of
+     * buckets, cached apart from the matchers of the same set with other tables.
+     * See getMatcher(char[]) for the sharing of the matcher.
      *
-     * @param charsSet  The set of characters.
-     * @return The TreeMap containing brightness values mapped to characters,
-     *         or null if the character set is not found.
+     * @param charsSet      The set of characters, in any order.
+     * @param lookupBuckets The number of buckets of the lookup table, or 0 to match exactly.
+     * @return The matcher of the character set.
+     * @throws IllegalArgumentException If the number of buckets is negative.
      */
-    public TreeMap<Double, PriorityQueue<Character>> getCharsValues(char[] charsSet) {
-        // Check if the character set exists
-        if (allCharsData.containsKey(charsSet)) {
-            // If yes, return the brightness values associated with the character set
-            return allCharsData.get(charsSet);
+    public SubImgCharMatcher getMatcher(char[] charsSet, int lookupBuckets) {
+        if (lookupBuckets < 0) {
+            throw new IllegalArgumentException("Number of buckets must not be negative: " + lookupBuckets);
+        }
+        Tuple<CharSetKey, Integer> key = new Tuple<>(new CharSetKey(charsSet), lookupBuckets);
+        CachedMatcher cached = matchers.get(key);
+        if (cached == null) {
+            CachedMatcher created = new CachedMatcher();
+            // Stamped before it is published, so it is never the eldest entry of the cache
+            created.lastAccess = accessClock.incrementAndGet();
+            cached = matchers.putIfAbsent(key, created);
+            if (cached == null) {
+                cacheMisses.increment();
+                try {
+                    SubImgCharMatcher matcher = new SubImgCharMatcher(key.getFirst().toCharArray());
+                    if (lookupBuckets > 0) {
+                        matcher.enableLookupTable(lookupBuckets);
+                    }
+                    matcher.makeReadOnly();
+                    created.matcher.complete(matcher);
+                } catch (RuntimeException e) {
+                    matchers.remove(key, created);
+                    created.matcher.completeExceptionally(e);
+                    throw e;
+                }
+                evictLeastRecentlyUsed();
+                return created.matcher.join();
+            }
         }
-        // If the character set is not found, return null
-        return null;
+        cacheHits.increment();
+        cached.lastAccess = accessClock.incrementAndGet();
+        return cached.matcher.join();
     }
 
     /**
-     * Retrieves the minimum and maximum brightness values for a given character set.
+     * Returns the brightness of a character, computing it only on first use.
      *
-     * @param charsSet  The set of characters.
-     * @return The array containing the minimum and maximum brightness values for the character set,
-     *         or null if the character set is not found.
+     * @param c The character.
+     * @return The brightness of the character, before normalization.
      */
-    public Double[] getMinAndMax(char[] charsSet) {
-        if (charsSetMinMax.containsKey(charsSet)) {
-            return charsSetMinMax.get(charsSet);
-        }
-        return null;
+    public double getInitBrightness(char c) {
+        return charAndInitBrightness.computeIfAbsent(c, SubImgCharMatcher::calculateInitBrightness);
     }
 
     /**
-     * Retrieves the initial brightness values for all characters.
+     * Returns the number of matchers returned from the cache.
      *
-     * @return The TreeMap containing initial brightness values mapped to characters.
+     * @return The number of cache hits.
      */
-    public TreeMap<Character, Double> getCharsInitValues() {
-        return charAndInitBrightness;
+    public long getCacheHits() {
+        return cacheHits.sum();
     }
 
-}
-
+    /**
+     * Returns the number of matchers that were not in the cache and had to be built.
+     *
+     * @return The number of cache misses.
+     */
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
 
+    /**
+     * Removes the least recently used matchers while the cache holds too many. Matchers that
+     * are still being built are never removed, so the threads waiting for them share them.
+     */
+    private void evictLeastRecentlyUsed() {
+        while (matchers.size() > MAX_CACHED_CHARSETS) {
+            Map.Entry<Tuple<CharSetKey, Integer>, CachedMatcher> eldest = null;
+            for (Map.Entry<Tuple<CharSetKey, Integer>, CachedMatcher> entry : matchers.entrySet()) {
+                if (!entry.getValue().matcher.isDone()) {
+                    continue;
+                }
+                if (eldest == null || entry.getValue().lastAccess < eldest.getValue().lastAccess) {
+                    eldest = entry;
+                }
+            }
+            if (eldest == null) {
+                return;
+            }
+            matchers.remove(eldest.getKey(), eldest.getValue());
+        }
+    }
 
+}
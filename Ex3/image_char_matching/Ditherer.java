@@ -0,0 +1,21 @@
+package image_char_matching;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * An object implementing this interface adjusts a grid of brightness values before its
+ * squares are matched to characters, so the quantization error of the matcher is spread
+ * over neighbouring squares instead of accumulating in flat areas.
+ */
+public interface Ditherer {
+    /**
+     * Dithers the brightness grid in place, for the given matcher.
+     * Matching the dithered grid with the matcher gives the dithered characters.
+     *
+     * @param brightness The brightness of every square, changed in place.
+     * @param matcher    The matcher the grid will be matched with.
+     * @param pool       The pool to dither on, or null to dither on the calling thread.
+     *                   The result does not depend on the pool.
+     */
+    void dither(double[][] brightness, SubImgCharMatcher matcher, ForkJoinPool pool);
+}
@@ -0,0 +1,130 @@
+package image_char_matching;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Floyd-Steinberg error diffusion. The squares are visited row by row, and the difference
+ * between each square's brightness and the brightness of its matched char is pushed to the
+ * unvisited neighbours: 7/16 to the right, and 3/16, 5/16 and 1/16 to the row below.
+ * Each square depends on the squares before it, so the rows cannot simply be split. On a pool
+ * the rows are pipelined instead: workers take rows in order, and a row only visits a column
+ * once the row above has finished two columns past it, after which nothing else writes to the
+ * squares it reads or writes. Every square receives its error in the same order as in the
+ * serial pass, so the result is identical to it.
+ */
+public class FloydSteinbergDitherer implements Ditherer {
+    private static final double RIGHT_WEIGHT = 7.0 / 16;
+    private static final double BELOW_LEFT_WEIGHT = 3.0 / 16;
+    private static final double BELOW_WEIGHT = 5.0 / 16;
+    private static final double BELOW_RIGHT_WEIGHT = 1.0 / 16;
+    // Columns the row above must be ahead by, so the two rows never touch the same square
+    private static final int LAG = 3;
+    // Columns visited between two publications of the progress of a row
+    private static final int PUBLISH_INTERVAL = 32;
+    // Smallest number of rows worth pipelining across a pool
+    private static final int MIN_PARALLEL_ROWS = 64;
+    private static final int SPINS_BEFORE_YIELD = 64;
+
+    @Override
+    public void dither(double[][] brightness, SubImgCharMatcher matcher, ForkJoinPool pool) {
+        int rows = brightness.length;
+        if (pool == null || pool.getParallelism() < 2 || rows < MIN_PARALLEL_ROWS) {
+            for (int i = 0; i < rows; i++) {
+                ditherRow(brightness, i, 0, brightness[i].length, matcher);
+            }
+            return;
+        }
+        int cols = brightness[0].length;
+        AtomicInteger nextRow = new AtomicInteger();
+        AtomicIntegerArray progress = new AtomicIntegerArray(rows); // Columns finished in each row
+        Runnable worker = () -> {
+            // Rows are taken in order, so the row a worker waits for is always being worked on
+            for (int i = nextRow.getAndIncrement(); i < rows; i = nextRow.getAndIncrement()) {
+                int done = 0;
+                while (done < cols) {
+                    int ready = i == 0 ? cols : waitForRowAbove(progress, i - 1, done, cols);
+                    int end = Math.min(ready, done + PUBLISH_INTERVAL);
+                    ditherRow(brightness, i, done, end, matcher);
+                    done = end;
+                    progress.setRelease(i, done);
+                }
+            }
+        };
+        List<Future<?>> workers = new ArrayList<>();
+        for (int w = 1; w < pool.getParallelism(); w++) {
+            workers.add(pool.submit(worker));
+        }
+        worker.run();
+        for (Future<?> future : workers) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while dithering", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Dithering failed", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Waits until the row above is far enough ahead for the next column of a row.
+     *
+     * @param progress The columns finished in each row.
+     * @param above    The row above.
+     * @param done     The columns finished in the current row.
+     * @param cols     The number of columns.
+     * @return The column up to which (exclusive) the current row may go.
+     */
+    private static int waitForRowAbove(AtomicIntegerArray progress, int above, int done, int cols) {
+        int spins = 0;
+        while (true) {
+            int aboveDone = progress.getAcquire(above);
+            int ready = aboveDone == cols ? cols : aboveDone - LAG + 1;
+            if (ready > done) {
+                return ready;
+            }
+            if (++spins < SPINS_BEFORE_YIELD) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Diffuses the error of a range of squares of one row.
+     *
+     * @param brightness The brightness grid.
+     * @param i          The row.
+     * @param from       The first column (inclusive).
+     * @param to         The last column (exclusive).
+     * @param matcher    The matcher that quantizes the brightness.
+     */
+    private static void ditherRow(double[][] brightness, int i, int from, int to, SubImgCharMatcher matcher) {
+        double[] row = brightness[i];
+        double[] below = i + 1 < brightness.length ? brightness[i + 1] : null;
+        int cols = row.length;
+        for (int j = from; j < to; j++) {
+            double error = row[j] - matcher.getMatchedBrightness(row[j]);
+            if (j + 1 < cols) {
+                row[j + 1] += error * RIGHT_WEIGHT;
+            }
+            if (below != null) {
+                if (j > 0) {
+                    below[j - 1] += error * BELOW_LEFT_WEIGHT;
+                }
+                below[j] += error * BELOW_WEIGHT;
+                if (j + 1 < cols) {
+                    below[j + 1] += error * BELOW_RIGHT_WEIGHT;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package image_char_matching;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A persistent, memory-mapped cache of rendered glyph bitmaps.
+ * Each cache file holds the glyphs of one font at one pixel resolution, in one fixed size
+ * slot per code point, so a glyph is read straight from the mapped file without rendering
+ * it with AWT. The file starts with a versioned header; a file with a different version,
+ * font or resolution is discarded and rebuilt.
+ * The cache directory is taken from the "glyph.cache.dir" system property, and defaults
+ * to a directory under the user's own ~/.cache, never a shared one. The file is opened
+ * without following symbolic links, and only used if it is a regular file owned by the
+ * current user, so another user cannot redirect the cache to overwrite other files or
+ * seed it with glyphs of their own. The header is checked and reset under a file lock,
+ * so two processes never reset the same file at once. If the file cannot be opened the
+ * cache stays disabled, and glyphs are simply rendered every time.
+ */
+class GlyphCache {
+    private static final String CACHE_DIR_PROPERTY = "glyph.cache.dir";
+    private static final String DEFAULT_CACHE_DIR = "ascii_art_glyphs";
+    private static final String USER_CACHE_DIR = ".cache"; // Per-user cache directory under user.home
+    private static final String OWNER_ONLY = "rwx------"; // Permissions of a created cache directory
+    private static final int MAGIC = 0x47_4C_59_46; // "GLYF"
+    private static final int VERSION = 1;
+    private static final int FONT_NAME_BYTES = 64;
+    private static final int HEADER_BYTES = 4 * Integer.BYTES + FONT_NAME_BYTES;
+    private static final int SLOTS = 256; // Code points [0, SLOTS) are cached
+    private static final byte PRESENT = 1;
+    private static final ConcurrentHashMap<String, GlyphCache> caches =
+            new ConcurrentHashMap<>(); // One cache per file
+
+    private final String fontName; // The resolved font the glyphs were rendered with
+    private final int resolution; // The glyphs are resolution x resolution pixels
+    private final int slotBytes; // Presence byte followed by the packed bitmap
+    private MappedByteBuffer buffer; // The mapped file, null until first use or if disabled
+    private boolean opened; // Whether opening the file was already attempted
+
+    /**
+     * Constructs a cache for the given font and resolution. The file is only opened on first use.
+     *
+     * @param fontName   The name of the font the glyphs are actually rendered with.
+     * @param resolution The pixel resolution of the glyphs.
+     */
+    private GlyphCache(String fontName, int resolution) {
+        this.fontName = fontName;
+        this.resolution = resolution;
+        this.slotBytes = 1 + (resolution * resolution + Byte.SIZE - 1) / Byte.SIZE;
+    }
+
+    /**
+     * Returns the cache of the given font and resolution.
+     *
+     * @param fontName   The name of the font the glyphs are actually rendered with, after any
+     *                   fallback, so glyphs of a fallback font are never cached under the name
+     *                   of a missing font.
+     * @param resolution The pixel resolution of the glyphs.
+     * @return The glyph cache.
+     */
+    static GlyphCache getInstance(String fontName, int resolution) {
+        return caches.computeIfAbsent(fontName + "/" + resolution,
+                k -> new GlyphCache(fontName, resolution));
+    }
+
+    /**
+     * Reads a glyph from the cache.
+     *
+     * @param c The character of the glyph.
+     * @return The glyph bitmap, or null if it is not cached.
+     */
+    synchronized boolean[][] read(char c) {
+        if (c >= SLOTS || !open()) {
+            return null;
+        }
+        int slot = HEADER_BYTES + c * slotBytes;
+        if (buffer.get(slot) != PRESENT) {
+            return null;
+        }
+        boolean[][] glyph = new boolean[resolution][resolution];
+        for (int bit = 0; bit < resolution * resolution; bit++) {
+            int packed = buffer.get(slot + 1 + bit / Byte.SIZE);
+            glyph[bit / resolution][bit % resolution] = (packed & (1 << (bit % Byte.SIZE))) != 0;
+        }
+        return glyph;
+    }
+
+    /**
+     * Writes a glyph to the cache. The presence byte is written last, so a glyph
+     * is never read half written.
+     *
+     * @param c     The character of the glyph.
+     * @param glyph The glyph bitmap, resolution x resolution.
+     */
+    synchronized void write(char c, boolean[][] glyph) {
+        if (c >= SLOTS || !open()) {
+            return;
+        }
+        int slot = HEADER_BYTES + c * slotBytes;
+        byte[] packed = new byte[slotBytes - 1];
+        for (int bit = 0; bit < resolution * resolution; bit++) {
+            if (glyph[bit / resolution][bit % resolution]) {
+                packed[bit / Byte.SIZE] |= (byte) (1 << (bit % Byte.SIZE));
+            }
+        }
+        buffer.put(slot + 1, packed);
+        buffer.put(slot, PRESENT);
+    }
+
+    /**
+     * Opens and maps the cache file on first use, creating or resetting it if its header
+     * does not match this cache. The file is only used if it is a regular file owned by
+     * the current user, and it is checked and reset while holding a lock on it.
+     *
+     * @return Whether the cache file is available.
+     */
+    private boolean open() {
+        if (opened) {
+            return buffer != null;
+        }
+        opened = true;
+        Path file = getCacheDir().resolve(String.format("glyphs-%s-%d.bin",
+                fontName.replaceAll("[^A-Za-z0-9]", "_"), resolution));
+        try {
+            createCacheDir(file.getParent());
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE, LinkOption.NOFOLLOW_LINKS)) {
+                if (!isOwnedRegularFile(file)) {
+                    return false;
+                }
+                FileLock lock = channel.lock();
+                try {
+                    buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                            HEADER_BYTES + (long) SLOTS * slotBytes);
+                    if (!isHeaderValid()) {
+                        resetFile();
+                    }
+                } finally {
+                    lock.release();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            buffer = null;
+        }
+        return buffer != null;
+    }
+
+    /**
+     * Creates the cache directory if it is missing, readable by the current user only where
+     * the file system supports POSIX permissions.
+     *
+     * @param dir The cache directory.
+     * @throws IOException If the directory cannot be created.
+     */
+    private static void createCacheDir(Path dir) throws IOException {
+        if (Files.isDirectory(dir)) {
+            return;
+        }
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(
+                    PosixFilePermissions.fromString(OWNER_ONLY)));
+        } else {
+            Files.createDirectories(dir);
+        }
+    }
+
+    /**
+     * Checks that a cache file is a regular file, not a link, owned by the current user.
+     *
+     * @param file The cache file.
+     * @return Whether the file can be trusted.
+     * @throws IOException If the attributes of the file cannot be read.
+     */
+    private static boolean isOwnedRegularFile(Path file) throws IOException {
+        if (!Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)) {
+            return false;
+        }
+        UserPrincipal currentUser = FileSystems.getDefault().getUserPrincipalLookupService()
+                .lookupPrincipalByName(System.getProperty("user.name"));
+        return currentUser.equals(Files.getOwner(file, LinkOption.NOFOLLOW_LINKS));
+    }
+
+    /**
+     * Checks that the mapped file was written by this version, for this font and resolution.
+     *
+     * @return Whether the header matches this cache.
+     */
+    private boolean isHeaderValid() {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(Integer.BYTES) != VERSION ||
+                buffer.getInt(2 * Integer.BYTES) != resolution ||
+                buffer.getInt(3 * Integer.BYTES) != SLOTS) {
+            return false;
+        }
+        byte[] storedName = new byte[FONT_NAME_BYTES];
+        buffer.get(4 * Integer.BYTES, storedName);
+        return Arrays.equals(storedName, getFontNameBytes());
+    }
+
+    /**
+     * Clears every slot of the mapped file and writes a fresh header.
+     */
+    private void resetFile() {
+        for (int i = HEADER_BYTES; i < buffer.capacity(); i++) {
+            buffer.put(i, (byte) 0);
+        }
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(Integer.BYTES, VERSION);
+        buffer.putInt(2 * Integer.BYTES, resolution);
+        buffer.putInt(3 * Integer.BYTES, SLOTS);
+        buffer.put(4 * Integer.BYTES, getFontNameBytes());
+    }
+
+    /**
+     * Returns the font name as a fixed length, zero padded byte array.
+     *
+     * @return The font name bytes.
+     */
+    private byte[] getFontNameBytes() {
+        byte[] name = fontName.getBytes(StandardCharsets.UTF_8);
+        return Arrays.copyOf(name, FONT_NAME_BYTES);
+    }
+
+    /**
+     * Returns the directory the cache files are stored in.
+     *
+     * @return The cache directory.
+     */
+    private static Path getCacheDir() {
+        String dir = System.getProperty(CACHE_DIR_PROPERTY);
+        if (dir != null) {
+            return Paths.get(dir);
+        }
+        return Paths.get(System.getProperty("user.home"), USER_CACHE_DIR, DEFAULT_CACHE_DIR);
+    }
+}
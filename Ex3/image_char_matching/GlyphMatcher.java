@@ -0,0 +1,252 @@
+package image_char_matching;
+
+import java.util.Arrays;
+
+/**
+ * A class that matches a character to the shape of a square of an image, rather than to its
+ * average brightness alone. The square is sampled on the same grid as the glyph bitmaps of
+ * CharConverter, and every candidate glyph is scored by the sum of squared differences
+ * between the samples and its bitmap. The glyph with the lowest score wins, ties going to
+ * the lowest character.
+ * The samples are first stretched to the brightness range of the charset, as in the
+ * brightness matcher, so a flat square still matches a char of the right brightness.
+ * Two kinds of pruning keep this fast:
+ * - A brightness pre-filter: only glyphs whose normalized brightness is within a window of the
+ *   square's brightness are scored. The glyph of the closest brightness is always a candidate.
+ * - Early exit: the candidates are scored outwards from the closest brightness, and a side
+ *   stops once the difference of sums alone bounds its score above the best one so far. A
+ *   glyph is also abandoned as soon as its partial score exceeds the best, checked after every
+ *   four rows of the grid.
+ * The glyphs are stored as one int array, one row of the grid after another, sorted by
+ * brightness so the candidates of a square are one contiguous range. Samples and bitmaps are
+ * quantized to integers: the JIT vectorizes the integer sums of the cells, which it does not do for
+ * floating point sums whose order it must preserve.
+ * Matching only reads the glyphs, so one matcher can be shared by threads.
+ */
+public class GlyphMatcher {
+    /**
+     * The number of samples in each row and column of a square, the size of a glyph bitmap.
+     */
+    public static final int GRID = CharConverter.DEFAULT_PIXEL_RESOLUTION;
+    /**
+     * The default brightness window of the pre-filter, in normalized brightness.
+     */
+    public static final double DEFAULT_WINDOW = 0.1;
+    private static final int CELLS = GRID * GRID;
+    private static final int LEVELS = 255; // Samples and bitmaps are quantized to [0, LEVELS]
+    // Cells summed between two checks of the early exit, long enough a loop to vectorize well
+    private static final int CHECKED_CELLS = 4 * GRID;
+    private static final float ROUNDING = 0.5f; // Added before truncating a positive sample
+
+    private final char[] chars; // The chars of the charset, sorted by brightness then by char
+    private final double[] brightness; // The normalized brightness of each char, ascending
+    private final int[] glyphs; // The bitmaps, CELLS values per char, 0 for ink and LEVELS for paper
+    private final long[] glyphSums; // The sum of the bitmap of each char
+    private final double minBrightness; // The lowest raw brightness of the charset
+    private final double maxBrightness; // The highest raw brightness of the charset
+    private final double window; // The brightness window of the pre-filter
+    private final ThreadLocal<int[]> samples = ThreadLocal.withInitial(() -> new int[CELLS]); // Quantized samples of each thread
+
+    /**
+     * Constructs a GlyphMatcher for the given charset with the default brightness window.
+     *
+     * @param charset The characters that will be used for matching.
+     */
+    public GlyphMatcher(char[] charset) {
+        this(charset, DEFAULT_WINDOW);
+    }
+
+    /**
+     * Constructs a GlyphMatcher for the given charset.
+     *
+     * @param charset The characters that will be used for matching.
+     * @param window  The brightness window of the pre-filter, in normalized brightness. A larger
+     *                window scores more glyphs per square; 0 keeps only the closest brightness.
+     * @throws IllegalArgumentException If the charset is empty or the window is negative.
+     */
+    public GlyphMatcher(char[] charset, double window) {
+        if (window < 0) {
+            throw new IllegalArgumentException("Window must not be negative: " + window);
+        }
+        char[] distinct = new CharSetKey(charset).toCharArray();
+        if (distinct.length == 0) {
+            throw new IllegalArgumentException("Charset is empty");
+        }
+        this.window = window;
+        CharsData charsData = CharsData.getInstance();
+        Character[] sorted = new Character[distinct.length];
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        for (int i = 0; i < distinct.length; i++) {
+            sorted[i] = distinct[i];
+            double initBrightness = charsData.getInitBrightness(distinct[i]);
+            min = Math.min(min, initBrightness);
+            max = Math.max(max, initBrightness);
+        }
+        // Stable sort of chars already in ascending order, so equal brightness keeps char order
+        Arrays.sort(sorted, (a, b) -> Double.compare(charsData.getInitBrightness(a),
+                charsData.getInitBrightness(b)));
+        minBrightness = min;
+        maxBrightness = max;
+        chars = new char[sorted.length];
+        brightness = new double[sorted.length];
+        glyphs = new int[sorted.length * CELLS];
+        glyphSums = new long[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            chars[i] = sorted[i];
+            brightness[i] = normalize(charsData.getInitBrightness(chars[i]));
+            boolean[][] bitmap = CharConverter.convertToBoolArray(chars[i]);
+            for (int y = 0; y < GRID; y++) {
+                for (int x = 0; x < GRID; x++) {
+                    glyphs[i * CELLS + y * GRID + x] = bitmap[y][x] ? LEVELS : 0;
+                    glyphSums[i] += glyphs[i * CELLS + y * GRID + x];
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the char whose glyph best matches the samples of a square.
+     *
+     * @param cells The brightness of the square sampled on a GRID x GRID grid, row-major,
+     *              each value between 0 and 1.
+     * @return The best matching char.
+     */
+    public char getCharByCells(float[] cells) {
+        int[] samples = this.samples.get();
+        // Stretch the samples to the raw brightness range of the charset, as the brightness
+        // matcher does when it normalizes the brightness of the chars
+        float offset = (float) (minBrightness * LEVELS) + ROUNDING;
+        float scale = (float) ((maxBrightness - minBrightness) * LEVELS);
+        double cellsSum = 0;
+        long samplesSum = 0;
+        for (int i = 0; i < CELLS; i++) {
+            cellsSum += cells[i];
+            samples[i] = (int) (offset + cells[i] * scale);
+            samplesSum += samples[i];
+        }
+        double mean = cellsSum / CELLS;
+        int closest = getClosestBrightness(mean);
+        int best = closest;
+        long bestScore = score(samples, closest, Long.MAX_VALUE);
+        // Darker candidates, then brighter ones, each side in order of brightness distance
+        for (int i = closest - 1; i >= 0 && mean - brightness[i] <= window; i--) {
+            if (lowerBound(samplesSum, i) > bestScore) {
+                break;
+            }
+            long score = score(samples, i, bestScore);
+            if (score < bestScore || (score == bestScore && chars[i] < chars[best])) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        for (int i = closest + 1; i < chars.length && brightness[i] - mean <= window; i++) {
+            if (lowerBound(samplesSum, i) > bestScore) {
+                break;
+            }
+            long score = score(samples, i, bestScore);
+            if (score < bestScore || (score == bestScore && chars[i] < chars[best])) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        return chars[best];
+    }
+
+    /**
+     * Returns the number of chars in the charset of the matcher.
+     *
+     * @return The size of the charset.
+     */
+    public int size() {
+        return chars.length;
+    }
+
+    /**
+     * Scores a glyph against the samples by the sum of squared differences, giving up once
+     * the score exceeds a bound.
+     *
+     * @param samples The quantized samples of the square.
+     * @param glyph   The index of the glyph.
+     * @param bound   The best score so far.
+     * @return The score of the glyph, or a value above the bound if it was abandoned.
+     */
+    private long score(int[] samples, int glyph, long bound) {
+        int offset = glyph * CELLS;
+        long total = 0;
+        for (int y = 0; y < CELLS; y += CHECKED_CELLS) {
+            int partSum = 0;
+            for (int x = y; x < y + CHECKED_CELLS; x++) {
+                int difference = samples[x] - glyphs[offset + x];
+                partSum += difference * difference;
+            }
+            total += partSum;
+            if (total > bound) {
+                return total;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Returns a lower bound of the score of a glyph: the sum of squared differences over the
+     * grid is at least the squared difference of the sums, divided by the number of cells.
+     * The bound grows with the brightness distance of the glyph from the samples.
+     *
+     * @param samplesSum The sum of the quantized samples.
+     * @param glyph      The index of the glyph.
+     * @return A value no greater than the score of the glyph.
+     */
+    private long lowerBound(long samplesSum, int glyph) {
+        long difference = samplesSum - glyphSums[glyph];
+        return difference * difference / CELLS;
+    }
+
+    /**
+     * Returns the index of the char whose normalized brightness is closest to the given one,
+     * the lowest char on a tie.
+     *
+     * @param target The normalized brightness.
+     * @return The index of the closest char.
+     */
+    private int getClosestBrightness(double target) {
+        int index = Arrays.binarySearch(brightness, target);
+        if (index >= 0) {
+            // Move to the first char of this brightness, which is the lowest one
+            while (index > 0 && brightness[index - 1] == brightness[index]) {
+                index--;
+            }
+            return index;
+        }
+        int upper = -index - 1;
+        if (upper == 0) {
+            return 0;
+        }
+        int lower = upper - 1;
+        while (lower > 0 && brightness[lower - 1] == brightness[lower]) {
+            lower--;
+        }
+        if (upper == brightness.length) {
+            return lower;
+        }
+        double lowerDistance = target - brightness[lower];
+        double upperDistance = brightness[upper] - target;
+        if (lowerDistance != upperDistance) {
+            return lowerDistance < upperDistance ? lower : upper;
+        }
+        return chars[lower] <= chars[upper] ? lower : upper;
+    }
+
+    /**
+     * Normalizes a raw brightness to the range of the charset.
+     *
+     * @param initBrightness The raw brightness of a char.
+     * @return The brightness scaled so the charset spans [0, 1], or 0 if all chars are equally bright.
+     */
+    private double normalize(double initBrightness) {
+        if (maxBrightness == minBrightness) {
+            return 0;
+        }
+        return (initBrightness - minBrightness) / (maxBrightness - minBrightness);
+    }
+}
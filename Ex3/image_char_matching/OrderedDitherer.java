@@ -0,0 +1,46 @@
+package image_char_matching;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Ordered dithering with an 8x8 Bayer matrix. Each square is offset by its threshold in the
+ * matrix, scaled to the spacing between the brightness levels of the charset, so a flat area
+ * between two levels becomes a fixed pattern of both. Every square is independent of the
+ * others and takes a single addition, which is cheaper than splitting the grid across a pool,
+ * so the pool is not used.
+ */
+public class OrderedDitherer implements Ditherer {
+    private static final int[][] BAYER = {
+            {0, 32, 8, 40, 2, 34, 10, 42},
+            {48, 16, 56, 24, 50, 18, 58, 26},
+            {12, 44, 4, 36, 14, 46, 6, 38},
+            {60, 28, 52, 20, 62, 30, 54, 22},
+            {3, 35, 11, 43, 1, 33, 9, 41},
+            {51, 19, 59, 27, 49, 17, 57, 25},
+            {15, 47, 7, 39, 13, 45, 5, 37},
+            {63, 31, 55, 23, 61, 29, 53, 21}};
+    private static final int SIZE = BAYER.length;
+    private static final double THRESHOLD_CENTER = 0.5;
+
+    @Override
+    public void dither(double[][] brightness, SubImgCharMatcher matcher, ForkJoinPool pool) {
+        int levels = matcher.getBrightnessLevels();
+        if (levels < 2) {
+            return; // Every brightness matches the same char
+        }
+        double spacing = 1.0 / (levels - 1);
+        double[][] offsets = new double[SIZE][SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            for (int j = 0; j < SIZE; j++) {
+                offsets[i][j] = ((BAYER[i][j] + THRESHOLD_CENTER) / (SIZE * SIZE) - THRESHOLD_CENTER) * spacing;
+            }
+        }
+        for (int i = 0; i < brightness.length; i++) {
+            double[] row = brightness[i];
+            double[] rowOffsets = offsets[i % SIZE];
+            for (int j = 0; j < row.length; j++) {
+                row[j] += rowOffsets[j % SIZE];
+            }
+        }
+    }
+}
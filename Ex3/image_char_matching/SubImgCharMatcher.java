@@ -1,22 +1,36 @@
 package image_char_matching;
 
+import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.PriorityQueue;
+import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
+import java.util.TreeSet;
 
 /**
  * A class that matches a character to a brightness value.
- * The class uses a map that maps a normalized brightness to a priority queue of characters.
- * The class also keeps track of the minimum and maximum brightness of the characters in the charset.
+ * The class keeps the raw brightness of the characters of the charset in a sorted multiset,
+ * so the minimum and maximum brightness are its first and last keys. The matching itself
+ * uses a map from normalized brightness to the characters of that brightness. Whenever the
+ * minimum or maximum changes, that map is rebuilt once from the raw brightness, so adding or
+ * removing many characters in a batch normalizes only once, and normalized values never go stale.
+ * Matching only reads the maps, so a matcher that is no longer changed can be shared by threads.
+ * A matcher can be made read-only, as the shared matchers of CharsData are, after which every
+ * change is refused; a copy of it can still be changed.
  */
 public class SubImgCharMatcher {
+    private static final double BUCKET_CENTER = 0.5;
     private final CharsData allCharsData;
-    private final TreeMap<Double, PriorityQueue<Character>> brightnessToChar;
-    // a map that maps a brightness to a
-    // priority queue of chars
-    private double minBrightness = Double.MAX_VALUE; // Initialize with max value
-    private double maxBrightness = Double.MIN_VALUE; // Initialize with min value
+    // a sorted multiset of the raw brightness of the chars, mapping a brightness to its chars
+    private final TreeMap<Double, TreeSet<Character>> rawBrightnessToChar;
+    // a map that maps a normalized brightness to the chars of that brightness
+    private final TreeMap<Double, TreeSet<Character>> brightnessToChar;
+    private double minBrightness; // The lowest raw brightness of the charset
+    private double maxBrightness; // The highest raw brightness of the charset
     private final HashSet<Character> charsSet;
+    private char[] lookupTable; // Quantized brightness to char, null when matching exactly
+    private double[] lookupKeys; // The normalized brightness of each char in the lookup table
+    private boolean readOnly; // Whether changes are refused, set before the matcher is shared
 
     /**
      * Constructor that initializes a SubImgCharMatcher with the given charset.
@@ -25,112 +39,422 @@ public class SubImgCharMatcher {
      */
     public SubImgCharMatcher(char[] charset) {
         allCharsData = CharsData.getInstance();
-        charsSet = new HashSet<>(); // Initialize an empty set
-        for (char curChar: charset){
-            charsSet.add(curChar);
-        }
-        if (allCharsData.getCharsValues(charset) != null){
-            brightnessToChar = allCharsData.getCharsValues(charset);
-            maxBrightness = allCharsData.getMinAndMax(charset)[1];
-            minBrightness = allCharsData.getMinAndMax(charset)[0];
-        }
-        else {
-            brightnessToChar = new TreeMap<>();
-            updateMinMax(charsSet);
-            for (char c : charset) {
-                addChar(c); // Add characters and update min/max brightness
-            }
-            allCharsData.addNewCharsaddSet(charset, brightnessToChar ,
-                    new Double[]{minBrightness, maxBrightness});
+        charsSet = new HashSet<>();
+        rawBrightnessToChar = new TreeMap<>();
+        brightnessToChar = new TreeMap<>();
+        addChars(charset);
+    }
+
+    /**
+     * Copy constructor, for a matcher that can be changed from a read-only one. The copy has
+     * the same charset and a lookup table of the same size, if the original has one.
+     *
+     * @param other The matcher to copy.
+     */
+    public SubImgCharMatcher(SubImgCharMatcher other) {
+        this(toArray(other.charsSet));
+        if (other.lookupTable != null) {
+            enableLookupTable(other.lookupTable.length);
         }
     }
 
     /**
      * Given a brightness value, return the character with the closest brightness in absolute value.
      * If there are ties, return the character with the lowest ASCII value.
+     * Only the two brightness values surrounding the given one can be the closest,
+     * so the lookup takes O(log n) in the size of the charset.
+     * When a lookup table is enabled, the brightness is quantized and the character
+     * is read from the table instead.
      *
      * @param brightness The brightness value.
      * @return The character with the closest brightness in absolute value.
      */
     public char getCharByImageBrightness(double brightness) {
-        double minDistance = Double.MAX_VALUE;
-        PriorityQueue<Character> closestChars = new PriorityQueue<>();
-
-        // Iterate over the brightness values
-        for (double curBrightness : brightnessToChar.keySet()) {
-            // Calculate the absolute difference between the current brightness and the target brightness
-            double distance = Math.abs(curBrightness - brightness);
-
-            // If the current distance is less than the minimum distance found so far,
-            // update the minimum distance and reset the set of closest characters
-            if (distance < minDistance) {
-                minDistance = distance;
-                closestChars = brightnessToChar.get(curBrightness);
-            }
-            // If the current distance is equal to the minimum distance found so far,
-            // add the characters corresponding to this brightness to the set of closest characters
-            else if (distance == minDistance) {
-                if (brightnessToChar.get(curBrightness).peek() <=
-                        brightnessToChar.get(minDistance).peek()){
-                    closestChars = brightnessToChar.get(curBrightness);
+        if (lookupTable != null) {
+            return lookupTable[getBucket(brightness)];
+        }
+        return getClosestEntry(brightness).getValue().first();
+    }
+
+    /**
+     * Returns the normalized brightness of the character that getCharByImageBrightness returns
+     * for the given brightness, the value the brightness is quantized to.
+     *
+     * @param brightness The brightness value.
+     * @return The normalized brightness of the matched character.
+     */
+    public double getMatchedBrightness(double brightness) {
+        if (lookupTable != null) {
+            return lookupKeys[getBucket(brightness)];
+        }
+        return getClosestEntry(brightness).getKey();
+    }
+
+    /**
+     * Returns the number of distinct brightness values of the charset, the levels every
+     * brightness is quantized to.
+     *
+     * @return The number of brightness levels.
+     */
+    public int getBrightnessLevels() {
+        return brightnessToChar.size();
+    }
+
+    /**
+     * Measures how far the characters matched to a grid are from a target brightness grid.
+     * Both grids are averaged over windows of the given size, and the result is the mean
+     * absolute difference between the target and the brightness of the matched characters.
+     * A window of 1 is the error of each square alone; a larger window is the error as seen
+     * from a distance, which dithering trades the error of single squares for.
+     *
+     * @param target  The brightness the characters should represent.
+     * @param matched The brightness the characters are matched from, for example after dithering.
+     *                Same size as the target.
+     * @param window  The size of the windows, at least 1.
+     * @return The mean absolute error over the windows.
+     * @throws IllegalArgumentException If the window is not positive.
+     */
+    public double getDitherError(double[][] target, double[][] matched, int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("Window must be positive: " + window);
+        }
+        double totalError = 0;
+        int windows = 0;
+        for (int i = 0; i < target.length; i += window) {
+            for (int j = 0; j < target[i].length; j += window) {
+                double targetSum = 0;
+                double matchedSum = 0;
+                int lastRow = Math.min(target.length, i + window);
+                int lastCol = Math.min(target[i].length, j + window);
+                for (int row = i; row < lastRow; row++) {
+                    for (int col = j; col < lastCol; col++) {
+                        targetSum += target[row][col];
+                        matchedSum += getMatchedBrightness(matched[row][col]);
+                    }
                 }
+                totalError += Math.abs(targetSum - matchedSum) / ((lastRow - i) * (lastCol - j));
+                windows++;
             }
         }
+        return windows == 0 ? 0 : totalError / windows;
+    }
+
+    /**
+     * Enables a lookup table that maps quantized brightness values straight to characters.
+     * The range [0, 1] is split into the given number of equal buckets, and each bucket
+     * holds the character closest to the brightness at its center. The table is kept up to
+     * date when characters are added or removed. An empty charset has no characters to fill
+     * the table with, so it is filled once characters are added.
+     *
+     * @param buckets The number of buckets in the table, for example 256 or 4096.
+     * @throws IllegalArgumentException If the number of buckets is not positive.
+     * @throws UnsupportedOperationException If the matcher is read-only.
+     */
+    public void enableLookupTable(int buckets) {
+        checkWritable();
+        if (buckets < 1) {
+            throw new IllegalArgumentException("Number of buckets must be positive: " + buckets);
+        }
+        lookupTable = new char[buckets];
+        lookupKeys = new double[buckets];
+        updateLookupTable(0, buckets - 1);
+    }
+
+    /**
+     * Disables the lookup table, so characters are matched exactly again.
+     *
+     * @throws UnsupportedOperationException If the matcher is read-only.
+     */
+    public void disableLookupTable() {
+        checkWritable();
+        lookupTable = null;
+        lookupKeys = null;
+    }
 
-        // Return the character with the lowest ASCII value among the closest characters
-        return closestChars.peek();
-   }
+    /**
+     * Returns the maximum quantization error of the lookup table: the largest amount by which
+     * the brightness of the character read from the table is farther from a brightness in
+     * [0, 1] than the brightness of the character the exact matcher would return.
+     *
+     * @return The maximum quantization error, or 0 if no lookup table is enabled.
+     */
+    public double getMaxQuantizationError() {
+        if (lookupTable == null || brightnessToChar.isEmpty()) {
+            return 0;
+        }
+        int buckets = lookupTable.length;
+        double maxError = 0;
+        for (int i = 0; i < buckets; i++) {
+            double low = (double) i / buckets;
+            double high = (double) (i + 1) / buckets;
+            // The error is piecewise linear, so it peaks at a bucket edge or at a char brightness
+            maxError = Math.max(maxError, getQuantizationError(i, low));
+            maxError = Math.max(maxError, getQuantizationError(i, high));
+            for (double key : brightnessToChar.subMap(low, true, high, true).keySet()) {
+                maxError = Math.max(maxError, getQuantizationError(i, key));
+            }
+        }
+        return maxError;
+    }
 
+    /**
+     * Returns the entry of the closest brightness to the given one.
+     * If there are ties, return the entry whose lowest character is the lowest.
+     *
+     * @param brightness The brightness value.
+     * @return The entry with the closest brightness in absolute value.
+     */
+    private Map.Entry<Double, TreeSet<Character>> getClosestEntry(double brightness) {
+        Map.Entry<Double, TreeSet<Character>> lower = brightnessToChar.floorEntry(brightness);
+        Map.Entry<Double, TreeSet<Character>> upper = brightnessToChar.ceilingEntry(brightness);
+        if (lower == null) {
+            return upper;
+        }
+        if (upper == null) {
+            return lower;
+        }
 
-    private void updateMinMax(HashSet<Character> chars){
-        for (char curChar: chars){
-            double initBrightness = calculateInitBrightness(curChar); // Calculate initial brightness
-            // Update min and max brightness
-            minBrightness = Math.min(minBrightness, initBrightness);
-            maxBrightness = Math.max(maxBrightness, initBrightness);
+        double lowerDistance = brightness - lower.getKey();
+        double upperDistance = upper.getKey() - brightness;
+        if (lowerDistance < upperDistance) {
+            return lower;
         }
+        if (upperDistance < lowerDistance) {
+            return upper;
+        }
+        // On a tie return the entry with the lowest ASCII value among both
+        return lower.getValue().first() <= upper.getValue().first() ? lower : upper;
     }
 
     /**
-     * Add a new char to the charset.
+     * Returns the lookup table bucket of a brightness value.
      *
-     * @param c The new char to add.
+     * @param brightness The brightness value.
+     * @return The index of the bucket, clamped to the table.
      */
-    public void addChar(char c) {
-        TreeMap<Character, Double> charsInitValues = allCharsData.getCharsInitValues();
-        double initBrightness;
-        if (charsInitValues.containsKey(c)){
-            initBrightness = charsInitValues.get(c);
+    private int getBucket(double brightness) {
+        int bucket = (int) (brightness * lookupTable.length);
+        return Math.max(0, Math.min(lookupTable.length - 1, bucket));
+    }
+
+    /**
+     * Recomputes the given range of buckets of the lookup table from the exact matcher.
+     * Nothing is recomputed for an empty charset, which has no closest character.
+     *
+     * @param first The first bucket to recompute (inclusive).
+     * @param last  The last bucket to recompute (inclusive).
+     */
+    private void updateLookupTable(int first, int last) {
+        if (brightnessToChar.isEmpty()) {
+            return;
         }
-        else {
-            initBrightness = calculateInitBrightness(c); // Calculate initial brightness
-            allCharsData.getCharsInitValues().put(c, initBrightness);
+        int buckets = lookupTable.length;
+        for (int i = first; i <= last; i++) {
+            Map.Entry<Double, TreeSet<Character>> closest =
+                    getClosestEntry((i + BUCKET_CENTER) / buckets);
+            lookupTable[i] = closest.getValue().first();
+            lookupKeys[i] = closest.getKey();
         }
-        charsSet.add(c);
-        updateMinMax(charsSet);
-        // Add the char to the map of the normalized brightness
-        double normalizedBrightness = (initBrightness - minBrightness) / (maxBrightness - minBrightness);
-        brightnessToChar.computeIfAbsent(normalizedBrightness, k -> new PriorityQueue<>()).add(c);
     }
 
     /**
-     * Remove a char from the charset.
+     * Updates the lookup table after the characters of a brightness value have changed,
+     * while the normalization of the charset stayed the same.
+     * Only buckets whose center is closer to this brightness than to its neighbouring
+     * brightness values can be affected, so only those are recomputed.
+     *
+     * @param brightness The brightness value whose characters changed.
+     */
+    private void updateLookupTableAround(double brightness) {
+        if (lookupTable == null || brightnessToChar.isEmpty()) {
+            return;
+        }
+        int buckets = lookupTable.length;
+        Double lowerKey = brightnessToChar.lowerKey(brightness);
+        Double higherKey = brightnessToChar.higherKey(brightness);
+        int first = lowerKey == null ? 0 : getBucket((lowerKey + brightness) / 2);
+        int last = higherKey == null ? buckets - 1 : getBucket((brightness + higherKey) / 2);
+        updateLookupTable(first, last);
+    }
+
+    /**
+     * Returns how much farther the character of a bucket is from a brightness value,
+     * compared to the closest character.
+     *
+     * @param bucket     The bucket of the lookup table.
+     * @param brightness A brightness value inside the bucket.
+     * @return The quantization error at this brightness.
+     */
+    private double getQuantizationError(int bucket, double brightness) {
+        double exactDistance = Math.abs(getClosestEntry(brightness).getKey() - brightness);
+        return Math.abs(lookupKeys[bucket] - brightness) - exactDistance;
+    }
+
+    /**
+     * Add a new char to the charset. Adding a char that is already in the charset does nothing.
+     *
+     * @param c The new char to add.
+     * @throws UnsupportedOperationException If the matcher is read-only.
+     */
+    public void addChar(char c) {
+        addChars(new char[]{c});
+    }
+
+    /**
+     * Remove a char from the charset. Removing a char that is not in the charset does nothing.
      *
      * @param c The char to remove.
+     * @throws UnsupportedOperationException If the matcher is read-only.
      */
     public void removeChar(char c) {
-        // Remove the char from the map
-        double newBrightness = newCharBrightness(c);
-        brightnessToChar.get(newBrightness).remove(c);
-        if (brightnessToChar.get(newBrightness).isEmpty()) {
-            brightnessToChar.remove(newBrightness);
+        removeChars(new char[]{c});
+    }
+
+    /**
+     * Add new chars to the charset. The normalization and the lookup table are updated once
+     * for the whole batch.
+     *
+     * @param chars The new chars to add.
+     * @throws UnsupportedOperationException If the matcher is read-only.
+     */
+    public void addChars(char[] chars) {
+        checkWritable();
+        List<Character> added = new ArrayList<>();
+        for (char c : chars) {
+            if (charsSet.add(c)) {
+                // Get the initial brightness, calculated only the first time the char is used
+                double initBrightness = allCharsData.getInitBrightness(c);
+                rawBrightnessToChar.computeIfAbsent(initBrightness, k -> new TreeSet<>()).add(c);
+                added.add(c);
+            }
+        }
+        update(added, true);
+    }
+
+    /**
+     * Remove chars from the charset. The normalization and the lookup table are updated once
+     * for the whole batch.
+     *
+     * @param chars The chars to remove.
+     * @throws UnsupportedOperationException If the matcher is read-only.
+     */
+    public void removeChars(char[] chars) {
+        checkWritable();
+        List<Character> removed = new ArrayList<>();
+        for (char c : chars) {
+            if (charsSet.remove(c)) {
+                double initBrightness = allCharsData.getInitBrightness(c);
+                TreeSet<Character> sameBrightness = rawBrightnessToChar.get(initBrightness);
+                sameBrightness.remove(c);
+                if (sameBrightness.isEmpty()) {
+                    rawBrightnessToChar.remove(initBrightness);
+                }
+                removed.add(c);
+            }
+        }
+        update(removed, false);
+    }
+
+    /**
+     * Brings the normalized map and the lookup table up to date after a batch of changes.
+     * If the minimum or maximum brightness changed, every normalized brightness changed with it,
+     * so the normalized map and the lookup table are rebuilt. Otherwise only the changed chars
+     * are moved in the normalized map, and only the buckets around them are recomputed.
+     *
+     * @param changed The chars that were added or removed.
+     * @param added   Whether the chars were added (true) or removed (false).
+     */
+    private void update(List<Character> changed, boolean added) {
+        if (changed.isEmpty()) {
+            return;
+        }
+        if (rawBrightnessToChar.isEmpty()) {
+            brightnessToChar.clear();
+            return;
+        }
+        double newMin = rawBrightnessToChar.firstKey();
+        double newMax = rawBrightnessToChar.lastKey();
+        if (brightnessToChar.isEmpty() || newMin != minBrightness || newMax != maxBrightness) {
+            minBrightness = newMin;
+            maxBrightness = newMax;
+            rebuildNormalized();
+            if (lookupTable != null) {
+                updateLookupTable(0, lookupTable.length - 1);
+            }
+            return;
+        }
+        for (char c : changed) {
+            double normalizedBrightness = normalize(allCharsData.getInitBrightness(c));
+            if (added) {
+                brightnessToChar.computeIfAbsent(normalizedBrightness, k -> new TreeSet<>()).add(c);
+            } else {
+                TreeSet<Character> sameBrightness = brightnessToChar.get(normalizedBrightness);
+                sameBrightness.remove(c);
+                if (sameBrightness.isEmpty()) {
+                    brightnessToChar.remove(normalizedBrightness);
+                }
+            }
+            updateLookupTableAround(normalizedBrightness);
+        }
+    }
+
+    /**
+     * Rebuilds the map of normalized brightness from the raw brightness of the chars.
+     */
+    private void rebuildNormalized() {
+        brightnessToChar.clear();
+        for (Map.Entry<Double, TreeSet<Character>> entry : rawBrightnessToChar.entrySet()) {
+            brightnessToChar.computeIfAbsent(normalize(entry.getKey()), k -> new TreeSet<>())
+                    .addAll(entry.getValue());
+        }
+    }
+
+    /**
+     * Normalizes a raw brightness to the range of the charset.
+     * A charset of a single brightness has no range to scale by, so its chars are at 0.
+     *
+     * @param initBrightness The raw brightness of a char.
+     * @return The brightness scaled so the charset spans [0, 1].
+     */
+    private double normalize(double initBrightness) {
+        if (maxBrightness == minBrightness) {
+            return 0;
+        }
+        return (initBrightness - minBrightness) / (maxBrightness - minBrightness);
+    }
+
+    /**
+     * Makes the matcher read-only, so it can be shared by threads and callers that must not
+     * change it. Must be called before the matcher is published to other threads.
+     */
+    void makeReadOnly() {
+        readOnly = true;
+    }
+
+    /**
+     * Refuses a change to a read-only matcher.
+     *
+     * @throws UnsupportedOperationException If the matcher is read-only.
+     */
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("The matcher is shared and read-only, change a copy");
         }
+    }
 
-        // Update min or max brightness if necessary
-        if (newBrightness == maxBrightness || newBrightness == minBrightness){
-            charsSet.remove(c);
-            updateMinMax(charsSet);
+    /**
+     * Returns the chars of a set as an array.
+     *
+     * @param chars The chars.
+     * @return An array of the chars.
+     */
+    private static char[] toArray(HashSet<Character> chars) {
+        char[] array = new char[chars.size()];
+        int i = 0;
+        for (char c : chars) {
+            array[i++] = c;
         }
+        return array;
     }
 
     /**
@@ -139,7 +463,7 @@ public class SubImgCharMatcher {
      * @param c The char.
      * @return The brightness of the char.
      */
-    private double calculateInitBrightness(char c) {
+    static double calculateInitBrightness(char c) {
         // Calculate the brightness of the char
         boolean[][] charMatrix = CharConverter.convertToBoolArray(c);
         double brightness = 0;
@@ -153,17 +477,4 @@ public class SubImgCharMatcher {
         }
         return brightness / (charMatrix.length * charMatrix[0].length);
     }
-
-    /**
-     * Calculate the new brightness of a char.
-     *
-     * @param c The char.
-     * @return The new brightness of the char.
-     */
-    private double newCharBrightness(char c){
-        double newBrightnessNumerator = allCharsData.getCharsInitValues().get(c) - minBrightness;
-        double newBrightnessDenominator = maxBrightness - minBrightness;
-        return newBrightnessNumerator / newBrightnessDenominator;
-    }
-
 }
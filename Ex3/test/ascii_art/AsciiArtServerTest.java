@@ -0,0 +1,87 @@
+package ascii_art;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Sends images to a running AsciiArtServer and checks which resolutions it accepts.
+ */
+class AsciiArtServerTest {
+    private static final int MAX_CONVERSIONS = 2;
+    private static final int OK = 200;
+    private static final int BAD_REQUEST = 400;
+
+    private AsciiArtServer server;
+    private HttpClient client;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = new AsciiArtServer(0, MAX_CONVERSIONS);
+        server.start();
+        client = HttpClient.newHttpClient();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop();
+    }
+
+    /**
+     * A wide, short image pads to a height of 16 pixels, so 512 squares in a row would be
+     * smaller than a pixel, even though 512 is a power of 2 within its width.
+     */
+    @Test
+    void wideImageRefusesResolutionAboveItsHeight() throws Exception {
+        assertEquals(BAD_REQUEST, convert(1000, 10, "res=512"));
+    }
+
+    /**
+     * A wide image is converted at a power of 2 between its width / height and its padded
+     * height.
+     */
+    @Test
+    void wideImageAcceptsValidResolution() throws Exception {
+        assertEquals(OK, convert(100, 10, "res=16"));
+    }
+
+    /**
+     * Chars are matched through a lookup table when asked to, and a table without buckets is
+     * refused.
+     */
+    @Test
+    void lookupTableIsOptional() throws Exception {
+        assertEquals(OK, convert(100, 10, "res=16&lookup=256"));
+        assertEquals(BAD_REQUEST, convert(100, 10, "res=16&lookup=0"));
+    }
+
+    /**
+     * Posts a black PNG image to the server.
+     *
+     * @param width      The width of the image.
+     * @param height     The height of the image.
+     * @param query      The query of the request.
+     * @return The status code of the response.
+     */
+    private int convert(int width, int height, String query) throws Exception {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+        HttpRequest request = HttpRequest.newBuilder(
+                        URI.create("http://localhost:" + server.getPort() + "/convert?" + query))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(png.toByteArray()))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+}
@@ -0,0 +1,164 @@
+package image;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Hammers the shared ResolutionImageData from many threads at once, and checks that each value
+ * is computed once, that the used bytes always match the entries in the cache, and that no
+ * hit or miss is lost.
+ */
+class ResolutionImageDataStressTest {
+    private static final int THREADS = 16;
+    private static final int ROUNDS = 2000;
+    private static final int IMAGES = 4;
+    private static final int IMAGE_SIZE = 16;
+    private static final int[] RESOLUTIONS = {1, 2, 4, 8, 16};
+    private static final int GRID_COLS = 3;
+    private static final int GRID_ROWS = 5;
+    private static final long SMALL_BUDGET = 4 * 1024;
+    private static final long TIMEOUT_SECONDS = 60;
+
+    /**
+     * Every thread asks for every value at the same time, with room for all of them in the
+     * budget, so each value is computed exactly once and every thread gets the same array.
+     */
+    @Test
+    void valuesAreComputedOnce() throws Exception {
+        ResolutionImageData data = ResolutionImageData.getInstance();
+        List<Image> images = createImages();
+        ConcurrentHashMap<String, AtomicInteger> computed = new ConcurrentHashMap<>();
+        ConcurrentHashMap<String, double[][]> seen = new ConcurrentHashMap<>();
+        CyclicBarrier start = new CyclicBarrier(THREADS);
+        runOnThreads(() -> {
+            start.await();
+            for (int i = 0; i < images.size(); i++) {
+                Image image = images.get(i);
+                for (int resolution : RESOLUTIONS) {
+                    String key = i + "/" + resolution;
+                    double[][] value = data.getOrComputeProcessImage(image, resolution, () -> {
+                        computed.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet();
+                        return new double[resolution][resolution];
+                    });
+                    assertSame(seen.computeIfAbsent(key, k -> value), value);
+                }
+                String gridKey = i + "/grid";
+                double[][] grid = data.getOrComputeGridImage(image, GRID_COLS, GRID_ROWS, () -> {
+                    computed.computeIfAbsent(gridKey, k -> new AtomicInteger()).incrementAndGet();
+                    return new double[GRID_ROWS][GRID_COLS];
+                });
+                assertSame(seen.computeIfAbsent(gridKey, k -> grid), grid);
+                BrightnessTable table = data.getBrightnessTable(image, null);
+                assertSame(data.getBrightnessTable(image, null), table);
+            }
+        });
+        assertEquals(images.size() * (RESOLUTIONS.length + 1), computed.size());
+        for (AtomicInteger count : computed.values()) {
+            assertEquals(1, count.get());
+        }
+        assertEquals(data.getLiveBytes(), data.getUsedBytes());
+    }
+
+    /**
+     * Threads ask for random values under a budget far too small for them, so entries are
+     * added and evicted all the time. Every value must still belong to its key, and once the
+     * threads are done the used bytes must equal the sizes of the entries left, within budget.
+     */
+    @Test
+    void bytesAreAccountedUnderEviction() throws Exception {
+        ResolutionImageData data = ResolutionImageData.getInstance();
+        List<Image> images = createImages();
+        long budget = data.getByteBudget();
+        long hitsBefore = data.getHits();
+        long missesBefore = data.getMisses();
+        data.setByteBudget(SMALL_BUDGET);
+        try {
+            CyclicBarrier start = new CyclicBarrier(THREADS);
+            runOnThreads(() -> {
+                start.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int round = 0; round < ROUNDS; round++) {
+                    Image image = images.get(random.nextInt(images.size()));
+                    int resolution = RESOLUTIONS[random.nextInt(RESOLUTIONS.length)];
+                    double[][] value = data.getOrComputeProcessImage(image, resolution, () ->
+                            new double[resolution][resolution]);
+                    assertEquals(resolution, value.length);
+                    assertEquals(resolution, value[0].length);
+                }
+            });
+            assertEquals(data.getLiveBytes(), data.getUsedBytes());
+            assertTrue(data.getUsedBytes() <= SMALL_BUDGET);
+            assertEquals((long) THREADS * ROUNDS,
+                    data.getHits() - hitsBefore + data.getMisses() - missesBefore);
+        } finally {
+            data.setByteBudget(budget);
+        }
+    }
+
+    /**
+     * Creates images of random pixels, so their content digests are not shared with any
+     * other test.
+     *
+     * @return The images.
+     */
+    private static List<Image> createImages() {
+        Random random = new Random();
+        List<Image> images = new ArrayList<>();
+        for (int i = 0; i < IMAGES; i++) {
+            BufferedImage im = new BufferedImage(IMAGE_SIZE, IMAGE_SIZE, BufferedImage.TYPE_INT_RGB);
+            for (int y = 0; y < IMAGE_SIZE; y++) {
+                for (int x = 0; x < IMAGE_SIZE; x++) {
+                    im.setRGB(x, y, random.nextInt());
+                }
+            }
+            images.add(new Image(im));
+        }
+        return images;
+    }
+
+    /**
+     * Work run on each thread, which may throw.
+     */
+    private interface Work {
+        void run() throws Exception;
+    }
+
+    /**
+     * Runs the same work on every thread and rethrows the first failure.
+     *
+     * @param work The work of each thread.
+     */
+    private static void runOnThreads(Work work) throws Exception {
+        ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Void>> results = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                results.add(threads.submit(() -> {
+                    work.run();
+                    return null;
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package image_char_matching;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Hammers the shared CharsData from many threads at once, and checks that the matcher of each
+ * charset is built once, that no hit or miss is lost, and that a matcher is not evicted while
+ * its thread still uses it.
+ */
+class CharsDataStressTest {
+    private static final int THREADS = 16;
+    private static final int ROUNDS = 2000;
+    // Fewer than the cache holds, so none of them is evicted during the test
+    private static final String[] CHARSETS = {"@#", "ab", "xyz.", "0123", "MW%", " .:-=+*", "il|", "oO0Q"};
+    // Rounds of a new charset per thread, so each round brings more charsets than the cache holds
+    private static final int EVICTING_ROUNDS = 2000;
+    private static final char FIRST_CHAR = 32;
+    private static final char LAST_CHAR = 126;
+    private static final long TIMEOUT_SECONDS = 60;
+
+    /**
+     * Every thread asks for the charsets in random orders of their chars, which are the same
+     * charsets, so each matcher is built once and every thread gets the same one.
+     */
+    @Test
+    void matchersAreBuiltOnce() throws Exception {
+        CharsData charsData = CharsData.getInstance();
+        long hitsBefore = charsData.getCacheHits();
+        long missesBefore = charsData.getCacheMisses();
+        ConcurrentHashMap<String, SubImgCharMatcher> seen = new ConcurrentHashMap<>();
+        CyclicBarrier start = new CyclicBarrier(THREADS);
+        runOnThreads(thread -> {
+            start.await();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int round = 0; round < ROUNDS; round++) {
+                String charset = CHARSETS[random.nextInt(CHARSETS.length)];
+                SubImgCharMatcher matcher = charsData.getMatcher(shuffle(charset, random));
+                assertSame(seen.computeIfAbsent(charset, k -> matcher), matcher);
+            }
+        });
+        assertEquals(CHARSETS.length, seen.size());
+        assertEquals(CHARSETS.length, charsData.getCacheMisses() - missesBefore);
+        assertEquals((long) THREADS * ROUNDS,
+                charsData.getCacheHits() - hitsBefore + charsData.getCacheMisses() - missesBefore);
+    }
+
+    /**
+     * In every round each thread asks for a charset that was not asked for in the round before,
+     * twice, so the cache holds more charsets than it may and evicts while matchers are being
+     * built. A matcher is newer than every matcher of the rounds before, so it must survive
+     * until its thread asks for it again, while the charsets of older rounds are all evicted
+     * and must be built again.
+     */
+    @Test
+    void newMatchersAreNotEvicted() throws Exception {
+        CharsData charsData = CharsData.getInstance();
+        List<char[]> charsets = createPairs();
+        long hitsBefore = charsData.getCacheHits();
+        long missesBefore = charsData.getCacheMisses();
+        CyclicBarrier round = new CyclicBarrier(THREADS);
+        runOnThreads(thread -> {
+            for (int i = 0; i < EVICTING_ROUNDS; i++) {
+                char[] charset = charsets.get((i * THREADS + thread) % charsets.size());
+                round.await();
+                SubImgCharMatcher matcher = charsData.getMatcher(charset);
+                assertSame(matcher, charsData.getMatcher(charset));
+            }
+        });
+        assertEquals((long) EVICTING_ROUNDS * THREADS, charsData.getCacheMisses() - missesBefore);
+        assertEquals((long) EVICTING_ROUNDS * THREADS, charsData.getCacheHits() - hitsBefore);
+    }
+
+    /**
+     * Creates the charsets of every pair of printable chars, except those of CHARSETS, so none
+     * of them is cached by another test.
+     *
+     * @return The pairs, more than the charsets of two rounds of newMatchersAreNotEvicted.
+     */
+    private static List<char[]> createPairs() {
+        List<char[]> pairs = new ArrayList<>();
+        for (char first = FIRST_CHAR; first <= LAST_CHAR; first++) {
+            for (char second = (char) (first + 1); second <= LAST_CHAR; second++) {
+                char[] pair = {first, second};
+                boolean used = false;
+                for (String charset : CHARSETS) {
+                    char[] sorted = charset.toCharArray();
+                    Arrays.sort(sorted);
+                    used |= Arrays.equals(sorted, pair);
+                }
+                if (!used) {
+                    pairs.add(pair);
+                }
+            }
+        }
+        assertTrue(pairs.size() > 2 * THREADS);
+        return pairs;
+    }
+
+    /**
+     * Work run on each thread, which may throw.
+     */
+    private interface Work {
+        void run(int thread) throws Exception;
+    }
+
+    /**
+     * Runs the same work on every thread and rethrows the first failure as soon as it happens,
+     * rather than after the threads still waiting for the failed one time out.
+     *
+     * @param work The work of each thread, given the index of the thread.
+     */
+    private static void runOnThreads(Work work) throws Exception {
+        ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+        try {
+            CompletionService<Void> results = new ExecutorCompletionService<>(threads);
+            for (int i = 0; i < THREADS; i++) {
+                int thread = i;
+                results.submit(() -> {
+                    work.run(thread);
+                    return null;
+                });
+            }
+            for (int i = 0; i < THREADS; i++) {
+                Future<Void> result = results.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                if (result == null) {
+                    throw new TimeoutException("Threads still running after " + TIMEOUT_SECONDS + " seconds");
+                }
+                result.get();
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    /**
+     * Shuffles the chars of a charset.
+     *
+     * @param charset The chars.
+     * @param random  The source of randomness.
+     * @return The chars in a random order.
+     */
+    private static char[] shuffle(String charset, ThreadLocalRandom random) {
+        char[] chars = charset.toCharArray();
+        for (int i = chars.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            char swap = chars[i];
+            chars[i] = chars[j];
+            chars[j] = swap;
+        }
+        return chars;
+    }
+}
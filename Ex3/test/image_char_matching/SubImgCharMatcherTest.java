@@ -0,0 +1,270 @@
+package image_char_matching;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the matching of the SubImgCharMatcher, both through the floor and ceiling entries of
+ * its sorted map and through its lookup table, against a linear scan of the charset.
+ */
+class SubImgCharMatcherTest {
+    private static final long SEED = 42;
+    private static final char FIRST_CHAR = 32;
+    private static final char LAST_CHAR = 126;
+    private static final int CHARSETS = 50;
+    private static final int MAX_CHARSET_SIZE = 20;
+    private static final int BRIGHTNESS_SAMPLES = 500;
+    private static final int[] BUCKETS = {1, 7, 256, 4096};
+    private static final double EPSILON = 1e-12;
+
+    /**
+     * Random charsets, matched at random brightness values and at the brightness of each char.
+     */
+    @Test
+    void exactMatchingAgreesWithLinearScan() {
+        Random random = new Random(SEED);
+        for (int i = 0; i < CHARSETS; i++) {
+            char[] charset = randomCharset(random);
+            SubImgCharMatcher matcher = new SubImgCharMatcher(charset);
+            for (int j = 0; j < BRIGHTNESS_SAMPLES; j++) {
+                assertMatches(charset, matcher, random.nextDouble());
+            }
+            // On the brightness of a char itself, and outside [0, 1]
+            for (char c : charset) {
+                assertMatches(charset, matcher, normalize(charset, c));
+            }
+            assertMatches(charset, matcher, -1);
+            assertMatches(charset, matcher, 2);
+        }
+    }
+
+    /**
+     * Brightness values halfway between neighbouring brightness values of the charset, where
+     * the lowest char of both must win, and chars that share a brightness.
+     */
+    @Test
+    void tiesAgreeWithLinearScan() {
+        Random random = new Random(SEED);
+        for (int i = 0; i < CHARSETS; i++) {
+            char[] charset = randomCharset(random);
+            SubImgCharMatcher matcher = new SubImgCharMatcher(charset);
+            for (char first : charset) {
+                for (char second : charset) {
+                    double halfway = (normalize(charset, first) + normalize(charset, second)) / 2;
+                    assertMatches(charset, matcher, halfway);
+                }
+            }
+        }
+        // The whole printable range has many chars of the same brightness
+        char[] all = new char[LAST_CHAR - FIRST_CHAR + 1];
+        for (char c = FIRST_CHAR; c <= LAST_CHAR; c++) {
+            all[c - FIRST_CHAR] = c;
+        }
+        SubImgCharMatcher matcher = new SubImgCharMatcher(all);
+        for (char c : all) {
+            assertMatches(all, matcher, normalize(all, c));
+        }
+    }
+
+    /**
+     * The lookup table returns the char the linear scan returns for the center of each bucket,
+     * for every brightness in the bucket, and is never worse than its maximum quantization error.
+     */
+    @Test
+    void lookupTableAgreesWithLinearScan() {
+        Random random = new Random(SEED);
+        for (int i = 0; i < CHARSETS; i++) {
+            char[] charset = randomCharset(random);
+            for (int buckets : BUCKETS) {
+                SubImgCharMatcher matcher = new SubImgCharMatcher(charset);
+                matcher.enableLookupTable(buckets);
+                double maxError = matcher.getMaxQuantizationError();
+                for (int j = 0; j < BRIGHTNESS_SAMPLES; j++) {
+                    double brightness = random.nextDouble();
+                    int bucket = Math.min(buckets - 1, (int) (brightness * buckets));
+                    char expected = linearScan(charset, (bucket + 0.5) / buckets);
+                    assertEquals(expected, matcher.getCharByImageBrightness(brightness));
+                    assertEquals(normalize(charset, expected), matcher.getMatchedBrightness(brightness));
+                    double error = Math.abs(normalize(charset, expected) - brightness) -
+                            Math.abs(normalize(charset, linearScan(charset, brightness)) - brightness);
+                    assertTrue(error <= maxError + EPSILON);
+                }
+            }
+        }
+    }
+
+    /**
+     * The lookup table stays in line with the linear scan as chars are added and removed.
+     */
+    @Test
+    void lookupTableFollowsChanges() {
+        Random random = new Random(SEED);
+        char[] charset = randomCharset(random);
+        SubImgCharMatcher matcher = new SubImgCharMatcher(charset);
+        int buckets = BUCKETS[BUCKETS.length - 1];
+        matcher.enableLookupTable(buckets);
+        for (int i = 0; i < CHARSETS; i++) {
+            char c = (char) (FIRST_CHAR + random.nextInt(LAST_CHAR - FIRST_CHAR + 1));
+            if (contains(charset, c) && charset.length > 1) {
+                matcher.removeChar(c);
+                charset = without(charset, c);
+            } else if (!contains(charset, c)) {
+                matcher.addChar(c);
+                charset = with(charset, c);
+            }
+            for (int bucket = 0; bucket < buckets; bucket++) {
+                double center = (bucket + 0.5) / buckets;
+                assertEquals(linearScan(charset, center), matcher.getCharByImageBrightness(center));
+            }
+        }
+    }
+
+    /**
+     * A charset of a single char, or of chars of a single brightness, matches every brightness
+     * and has a brightness of its own rather than NaN.
+     */
+    @Test
+    void singleBrightnessIsNotNaN() {
+        char[][] charsets = {{'@'}, {' '}, {' ', '\t'}};
+        for (char[] charset : charsets) {
+            SubImgCharMatcher matcher = new SubImgCharMatcher(charset);
+            for (int buckets : new int[]{0, 1, 256}) {
+                if (buckets > 0) {
+                    matcher.enableLookupTable(buckets);
+                }
+                for (double brightness : new double[]{-1, 0, 0.5, 1, 2}) {
+                    assertEquals(linearScan(charset, brightness), matcher.getCharByImageBrightness(brightness));
+                    assertFalse(Double.isNaN(matcher.getMatchedBrightness(brightness)));
+                }
+                double[][] grid = {{0, 0.25}, {0.75, 1}};
+                assertFalse(Double.isNaN(matcher.getDitherError(grid, grid, 1)));
+                assertFalse(Double.isNaN(matcher.getMaxQuantizationError()));
+            }
+            assertEquals(1, matcher.getBrightnessLevels());
+        }
+    }
+
+    /**
+     * A lookup table enabled on an empty charset, which has no chars to fill it with, is
+     * filled once chars are added.
+     */
+    @Test
+    void lookupTableOnEmptyCharset() {
+        int buckets = BUCKETS[2];
+        SubImgCharMatcher matcher = new SubImgCharMatcher(new char[0]);
+        matcher.enableLookupTable(buckets);
+        assertEquals(0, matcher.getMaxQuantizationError());
+        char[] charset = {'@', '.', 'o'};
+        matcher.addChars(charset);
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            double center = (bucket + 0.5) / buckets;
+            assertEquals(linearScan(charset, center), matcher.getCharByImageBrightness(center));
+        }
+    }
+
+    /**
+     * The shared matcher of CharsData refuses every change, and a copy of it can be changed
+     * without changing the shared one.
+     */
+    @Test
+    void sharedMatcherIsReadOnly() {
+        char[] charset = {'@', '.', 'o'};
+        SubImgCharMatcher shared = CharsData.getInstance().getMatcher(charset);
+        assertThrows(UnsupportedOperationException.class, () -> shared.addChar('#'));
+        assertThrows(UnsupportedOperationException.class, () -> shared.removeChar('@'));
+        assertThrows(UnsupportedOperationException.class, () -> shared.enableLookupTable(256));
+        assertThrows(UnsupportedOperationException.class, shared::disableLookupTable);
+        SubImgCharMatcher copy = new SubImgCharMatcher(shared);
+        copy.removeChar('@');
+        assertMatches(new char[]{'.', 'o'}, copy, 1);
+        assertMatches(charset, shared, 1);
+    }
+
+    /**
+     * Asserts that the matcher returns the char of the linear scan, and its brightness.
+     *
+     * @param charset    The chars of the matcher.
+     * @param matcher    The matcher, without a lookup table.
+     * @param brightness The brightness to match.
+     */
+    private static void assertMatches(char[] charset, SubImgCharMatcher matcher, double brightness) {
+        char expected = linearScan(charset, brightness);
+        assertEquals(expected, matcher.getCharByImageBrightness(brightness), "brightness " + brightness);
+        assertEquals(normalize(charset, expected), matcher.getMatchedBrightness(brightness));
+    }
+
+    /**
+     * Finds the char of the closest normalized brightness by looking at every char. On a tie
+     * the lowest char wins.
+     *
+     * @param charset    The chars.
+     * @param brightness The brightness to match.
+     * @return The closest char.
+     */
+    private static char linearScan(char[] charset, double brightness) {
+        char best = 0;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for (char c : charset) {
+            double distance = Math.abs(normalize(charset, c) - brightness);
+            if (distance < bestDistance || (distance == bestDistance && c < best)) {
+                best = c;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Normalizes the brightness of a char to the range of a charset, as the matcher does.
+     *
+     * @param charset The chars.
+     * @param c       A char of the charset.
+     * @return The brightness of the char scaled so the charset spans [0, 1].
+     */
+    private static double normalize(char[] charset, char c) {
+        CharsData charsData = CharsData.getInstance();
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (char other : charset) {
+            min = Math.min(min, charsData.getInitBrightness(other));
+            max = Math.max(max, charsData.getInitBrightness(other));
+        }
+        return max == min ? 0 : (charsData.getInitBrightness(c) - min) / (max - min);
+    }
+
+    /**
+     * Picks a random charset of printable chars without repeats.
+     *
+     * @param random The source of randomness.
+     * @return The charset.
+     */
+    private static char[] randomCharset(Random random) {
+        int size = 1 + random.nextInt(MAX_CHARSET_SIZE);
+        char[] charset = new char[0];
+        while (charset.length < size) {
+            char c = (char) (FIRST_CHAR + random.nextInt(LAST_CHAR - FIRST_CHAR + 1));
+            if (!contains(charset, c)) {
+                charset = with(charset, c);
+            }
+        }
+        return charset;
+    }
+
+    private static boolean contains(char[] charset, char c) {
+        return new String(charset).indexOf(c) >= 0;
+    }
+
+    private static char[] with(char[] charset, char c) {
+        return (new String(charset) + c).toCharArray();
+    }
+
+    private static char[] without(char[] charset, char c) {
+        return new String(charset).replace(String.valueOf(c), "").toCharArray();
+    }
+}